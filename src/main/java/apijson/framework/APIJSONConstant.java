@@ -40,6 +40,13 @@ public class APIJSONConstant {
 	public static final String USER_ = "User";
 	public static final String PRIVACY_ = "Privacy";
 	public static final String VISITOR_ID = "visitorId";
+	public static final String PRIMARY_UNTIL = "primaryUntil";
+	public static final String TIMEOUT = "@timeout";
+	public static final String ENCODING = "encoding";
+	public static final String ARRAY_FORMAT = "@format";
+	public static final String COLUMNAR = "columnar";
+	public static final String METHOD = "method";
+	public static final String BODY = "body";
 	
 	public static final String ID = JSONRequest.KEY_ID;
 	public static final String USER_ID = JSONRequest.KEY_USER_ID;
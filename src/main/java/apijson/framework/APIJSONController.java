@@ -22,32 +22,59 @@ import static apijson.RequestMethod.HEADS;
 import static apijson.RequestMethod.POST;
 import static apijson.RequestMethod.PUT;
 import static apijson.framework.APIJSONConstant.ACCESS_;
+import static apijson.framework.APIJSONConstant.BODY;
 import static apijson.framework.APIJSONConstant.DEFAULTS;
+import static apijson.framework.APIJSONConstant.ENCODING;
 import static apijson.framework.APIJSONConstant.FORMAT;
 import static apijson.framework.APIJSONConstant.FUNCTION_;
+import static apijson.framework.APIJSONConstant.METHOD;
 import static apijson.framework.APIJSONConstant.REQUEST_;
 import static apijson.framework.APIJSONConstant.VERSION;
 import static apijson.framework.APIJSONConstant.VISITOR_;
 import static apijson.framework.APIJSONConstant.VISITOR_ID;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
 import java.rmi.ServerException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
+import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 
 import apijson.JSON;
+import apijson.JSONResponse;
 import apijson.Log;
 import apijson.NotNull;
 import apijson.RequestMethod;
 import apijson.StringUtil;
 import apijson.orm.AbstractParser;
 import apijson.orm.Parser;
+import apijson.orm.SQLExecutor;
 import apijson.orm.Visitor;
 import unitauto.MethodUtil;
 import unitauto.MethodUtil.InterfaceProxy;
@@ -68,6 +95,29 @@ public class APIJSONController {
 	static {
 		APIJSON_CREATOR = new APIJSONCreator();
 	}
+
+	/**
+	 * 异步请求的超时时间，单位 ms，<= 0 则用容器的默认值，默认比 APIJSONParser.MAX_TIMEOUT 长一点，让解析器的超时先生效并回滚
+	 */
+	public static long ASYNC_TIMEOUT = APIJSONParser.MAX_TIMEOUT + 5*1000;
+	/**
+	 * 异步请求的线程池，队列满了则直接返回 503，设置为 null 则在容器线程中同步执行
+	 */
+	public static ThreadPoolExecutor ASYNC_EXECUTOR;
+	static {
+		int size = Math.max(16, 4*Runtime.getRuntime().availableProcessors());
+		ASYNC_EXECUTOR = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(1000), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, TAG + "-async-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		}, new ThreadPoolExecutor.AbortPolicy());
+		ASYNC_EXECUTOR.allowCoreThreadTimeOut(true);
+	}
 	
 	public String getRequestURL() {
 		return null;
@@ -90,6 +140,33 @@ public class APIJSONController {
 		return newParser(session, method).parse(request);
 	}
 
+	/**解析请求并把结果以 UTF-8 直接序列化到 servletResponse，不生成整个 JSON 字符串，
+	 * 不设置 Content-Length，比较大的结果由容器分块(chunked)写出
+	 * @param request
+	 * @param session
+	 * @param method
+	 * @param servletResponse
+	 * @throws IOException
+	 */
+	public void parse(String request, HttpSession session, RequestMethod method, ServletResponse servletResponse) throws IOException {
+		servletResponse.setCharacterEncoding(StandardCharsets.UTF_8.name());
+		servletResponse.setContentType("application/json;charset=UTF-8");
+		parse(request, session, method, servletResponse.getOutputStream());
+	}
+
+	/**解析请求并把结果以 UTF-8 直接序列化到 output，fastjson 序列化时用的是线程内复用的缓冲区
+	 * @param request
+	 * @param session
+	 * @param method
+	 * @param output
+	 * @throws IOException
+	 */
+	public void parse(String request, HttpSession session, RequestMethod method, OutputStream output) throws IOException {
+		JSONObject response = newParser(session, method).parseResponse(request);
+		com.alibaba.fastjson.JSON.writeJSONString(output, StandardCharsets.UTF_8, response);
+		output.flush();
+	}
+
 	//通用接口，非事务型操作 和 简单事务型操作 都可通过这些接口自动化实现<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<
 
 	/**获取
@@ -102,6 +179,17 @@ public class APIJSONController {
 		return parse(request, session, GET);
 	}
 
+	/**获取，结果直接写到 servletResponse
+	 * @param request 只用String，避免encode后未decode
+	 * @param session
+	 * @param servletResponse
+	 * @throws IOException
+	 * @see {@link RequestMethod#GET}
+	 */
+	public void get(String request, HttpSession session, ServletResponse servletResponse) throws IOException {
+		parse(request, session, GET, servletResponse);
+	}
+
 	/**计数
 	 * @param request 只用String，避免encode后未decode
 	 * @param session
@@ -112,6 +200,17 @@ public class APIJSONController {
 		return parse(request, session, HEAD);
 	}
 
+	/**计数，结果直接写到 servletResponse
+	 * @param request 只用String，避免encode后未decode
+	 * @param session
+	 * @param servletResponse
+	 * @throws IOException
+	 * @see {@link RequestMethod#HEAD}
+	 */
+	public void head(String request, HttpSession session, ServletResponse servletResponse) throws IOException {
+		parse(request, session, HEAD, servletResponse);
+	}
+
 	/**限制性GET，request和response都非明文，浏览器看不到，用于对安全性要求高的GET请求
 	 * @param request 只用String，避免encode后未decode
 	 * @param session
@@ -122,6 +221,17 @@ public class APIJSONController {
 		return parse(request, session, GETS);
 	}
 
+	/**限制性GET，request和response都非明文，浏览器看不到，用于对安全性要求高的GET请求，结果直接写到 servletResponse
+	 * @param request 只用String，避免encode后未decode
+	 * @param session
+	 * @param servletResponse
+	 * @throws IOException
+	 * @see {@link RequestMethod#GETS}
+	 */
+	public void gets(String request, HttpSession session, ServletResponse servletResponse) throws IOException {
+		parse(request, session, GETS, servletResponse);
+	}
+
 	/**限制性HEAD，request和response都非明文，浏览器看不到，用于对安全性要求高的HEAD请求
 	 * @param request 只用String，避免encode后未decode
 	 * @param session
@@ -132,6 +242,17 @@ public class APIJSONController {
 		return parse(request, session, HEADS);
 	}
 
+	/**限制性HEAD，request和response都非明文，浏览器看不到，用于对安全性要求高的HEAD请求，结果直接写到 servletResponse
+	 * @param request 只用String，避免encode后未decode
+	 * @param session
+	 * @param servletResponse
+	 * @throws IOException
+	 * @see {@link RequestMethod#HEADS}
+	 */
+	public void heads(String request, HttpSession session, ServletResponse servletResponse) throws IOException {
+		parse(request, session, HEADS, servletResponse);
+	}
+
 	/**新增
 	 * @param request 只用String，避免encode后未decode
 	 * @param session
@@ -142,6 +263,17 @@ public class APIJSONController {
 		return parse(request, session, POST);
 	}
 
+	/**新增，结果直接写到 servletResponse
+	 * @param request 只用String，避免encode后未decode
+	 * @param session
+	 * @param servletResponse
+	 * @throws IOException
+	 * @see {@link RequestMethod#POST}
+	 */
+	public void post(String request, HttpSession session, ServletResponse servletResponse) throws IOException {
+		parse(request, session, POST, servletResponse);
+	}
+
 	/**修改
 	 * @param request 只用String，避免encode后未decode
 	 * @param session
@@ -152,6 +284,17 @@ public class APIJSONController {
 		return parse(request, session, PUT);
 	}
 
+	/**修改，结果直接写到 servletResponse
+	 * @param request 只用String，避免encode后未decode
+	 * @param session
+	 * @param servletResponse
+	 * @throws IOException
+	 * @see {@link RequestMethod#PUT}
+	 */
+	public void put(String request, HttpSession session, ServletResponse servletResponse) throws IOException {
+		parse(request, session, PUT, servletResponse);
+	}
+
 	/**删除
 	 * @param request 只用String，避免encode后未decode
 	 * @param session
@@ -162,6 +305,355 @@ public class APIJSONController {
 		return parse(request, session, DELETE);
 	}
 
+	/**删除，结果直接写到 servletResponse
+	 * @param request 只用String，避免encode后未decode
+	 * @param session
+	 * @param servletResponse
+	 * @throws IOException
+	 * @see {@link RequestMethod#DELETE}
+	 */
+	public void delete(String request, HttpSession session, ServletResponse servletResponse) throws IOException {
+		parse(request, session, DELETE, servletResponse);
+	}
+
+	/**解析请求并按协商的格式写出结果，请求内容和结果都可以是 JSON 或 BinaryFormat 中的二进制格式
+	 * <br > 请求内容的格式由请求头 Content-Type 决定，结果的格式由请求中和 format 同级的 "encoding": "msgpack" 或 请求头 Accept 决定，默认为 JSON
+	 * @param servletRequest
+	 * @param method
+	 * @param servletResponse
+	 * @throws IOException
+	 * @see BinaryFormat#FORMAT_MAP
+	 */
+	public void parseEncoded(HttpServletRequest servletRequest, RequestMethod method, HttpServletResponse servletResponse) throws IOException {
+		BinaryFormat format = BinaryFormat.getAcceptedFormat(servletRequest.getHeader("Accept"));
+
+		String request = null;
+		JSONObject req;
+		try {
+			BinaryFormat requestFormat = BinaryFormat.getFormat(servletRequest.getContentType());
+			if (requestFormat == null) {
+				request = readString(servletRequest.getInputStream());
+				req = JSON.parseObject(request);
+			}
+			else {
+				req = requestFormat.readObject(servletRequest.getInputStream());
+			}
+
+			Object encoding = req == null ? null : req.remove(ENCODING);
+			if (encoding != null) {
+				format = BinaryFormat.getFormat(encoding.toString());
+				if (format == null && "json".equalsIgnoreCase(encoding.toString()) == false) {
+					throw new IllegalArgumentException(ENCODING + ":value 中 value 只能是 json, " + BinaryFormat.MSGPACK.getName() + ", " + BinaryFormat.CBOR.getName() + " 中的一个！");
+				}
+			}
+		}
+		catch (Exception e) {
+			writeResponse(servletResponse, APIJSONParser.newErrorResult(e), format);
+			return;
+		}
+
+		Parser<Long> parser = newParser(servletRequest.getSession(), method);
+		writeResponse(servletResponse, req == null ? parser.parseResponse(request) : parser.parseResponse(req), format);
+	}
+
+	/**把结果按 format 序列化到 servletResponse
+	 * @param servletResponse
+	 * @param response
+	 * @param format 为 null 则为 JSON
+	 * @throws IOException
+	 */
+	protected void writeResponse(ServletResponse servletResponse, JSONObject response, BinaryFormat format) throws IOException {
+		if (format == null) {
+			writeResponse(servletResponse, response);
+			return;
+		}
+
+		servletResponse.setContentType(format.getContentType());
+		OutputStream output = servletResponse.getOutputStream();
+		format.write(output, response);
+		output.flush();
+	}
+
+	/**以 UTF-8 读取全部内容
+	 * @param input
+	 * @return
+	 * @throws IOException
+	 */
+	protected static String readString(InputStream input) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int length;
+		while ((length = input.read(buffer)) >= 0) {
+			output.write(buffer, 0, length);
+		}
+		return new String(output.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+
+	/**
+	 * 批量请求中最多的请求数
+	 */
+	public static int MAX_BATCH_COUNT = 50;
+
+	/**批量请求，一次 HTTP 请求按顺序执行多个 APIJSON 请求，每个请求的结果按顺序写出 [response0, response1, ...]
+	 * <br > 所有请求共用同一个 session(visitor)，依次执行的请求共用同一个 SQLExecutor 及它的连接，
+	 * 连续多个 GET, HEAD 等查询请求之间没有依赖，会并发执行，每个结果在它及前面的结果都完成后立即写出
+	 * @param request [{"method": "GET", "tag": "Moment", "body": {...}}, ...]，tag 不为空则和 parseByTag 一样包装 body，method 默认为 GET
+	 * @param session
+	 * @param servletResponse
+	 * @throws IOException
+	 */
+	public void batch(String request, HttpSession session, ServletResponse servletResponse) throws IOException {
+		JSONArray items = JSON.parseArray(request);
+		if (items == null || items.isEmpty() || items.size() > MAX_BATCH_COUNT) {
+			writeResponse(servletResponse, APIJSONParser.newErrorResult(new IllegalArgumentException("批量请求必须是 1-" + MAX_BATCH_COUNT + " 项的数组 [] ！")));
+			return;
+		}
+
+		servletResponse.setCharacterEncoding(StandardCharsets.UTF_8.name());
+		servletResponse.setContentType("application/json;charset=UTF-8");
+		OutputStream output = servletResponse.getOutputStream();
+		output.write('[');
+
+		SQLExecutor sharedExecutor = APIJSON_CREATOR.createSQLExecutor();
+		ThreadPoolExecutor executor = APIJSONParser.PARALLEL_EXECUTOR;
+		try {
+			int size = items.size();
+			int i = 0;
+			while (i < size) {
+				int end = i;
+				while (end < size && RequestMethod.isQueryMethod(getBatchMethod(items.get(end)))) {
+					end ++;
+				}
+
+				if (end - i >= 2 && executor != null) {  // 连续的查询并发执行，每个用单独的连接
+					List<Future<JSONObject>> futureList = new ArrayList<>(end - i);
+					for (int j = i; j < end; j++) {
+						final Object item = items.get(j);
+						final Parser<Long> parser = newBatchParser(item, session, null);  // requestURL 等只能在请求线程中取
+						futureList.add(executor.submit(new Callable<JSONObject>() {
+
+							@Override
+							public JSONObject call() throws Exception {
+								return parseBatchItem(item, parser);
+							}
+						}));
+					}
+
+					for (Future<JSONObject> future : futureList) {
+						JSONObject response;
+						try {
+							response = future.get();
+						}
+						catch (Exception e) {
+							Throwable cause = e.getCause();
+							response = APIJSONParser.newErrorResult(cause instanceof Exception ? (Exception) cause : e);
+						}
+						writeBatchItem(output, i, response);
+						i ++;
+					}
+					continue;
+				}
+
+				Object item = items.get(i);
+				writeBatchItem(output, i, parseBatchItem(item, newBatchParser(item, session, sharedExecutor)));
+				i ++;
+			}
+		}
+		finally {
+			sharedExecutor.close();
+		}
+
+		output.write(']');
+		output.flush();
+	}
+
+	/**
+	 * @param item
+	 * @return 不合法则为 null
+	 */
+	protected RequestMethod getBatchMethod(Object item) {
+		if (item instanceof JSONObject == false) {
+			return null;
+		}
+
+		String method = ((JSONObject) item).getString(METHOD);
+		try {
+			return StringUtil.isEmpty(method, true) ? GET : RequestMethod.valueOf(method.trim().toUpperCase());
+		}
+		catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param item
+	 * @param session
+	 * @param sharedExecutor 为 null 则用单独的 SQLExecutor，且不再拆分并发
+	 * @return method 不合法则为 null
+	 */
+	protected Parser<Long> newBatchParser(Object item, HttpSession session, SQLExecutor sharedExecutor) {
+		RequestMethod method = getBatchMethod(item);
+		if (method == null) {
+			return null;
+		}
+
+		Parser<Long> parser = newParser(session, method);
+		if (parser instanceof APIJSONParser) {
+			if (sharedExecutor != null) {
+				((APIJSONParser) parser).setSharedSQLExecutor(sharedExecutor);
+			}
+			else {
+				((APIJSONParser) parser).setParallel(false);  // 已经在 PARALLEL_EXECUTOR 中了，避免等待自己线程池中的任务
+			}
+		}
+		return parser;
+	}
+
+	/**
+	 * @param item {"method": "GET", "tag": "Moment", "body": {...}}
+	 * @param parser
+	 * @return
+	 */
+	protected JSONObject parseBatchItem(Object item, Parser<Long> parser) {
+		try {
+			if (parser == null) {
+				throw new IllegalArgumentException("批量请求中每一项都必须是 {\"" + METHOD + "\": \"GET\", \"" + APIJSONConstant.TAG + "\": \"Table\", \"" + BODY + "\": {...}} 这种对象，"
+						+ METHOD + " 只能是 GET, HEAD, GETS, HEADS, POST, PUT, DELETE 中的一个！");
+			}
+
+			JSONObject obj = (JSONObject) item;
+			JSONObject body = obj.getJSONObject(BODY);
+			String tag = obj.getString(APIJSONConstant.TAG);
+			if (StringUtil.isNotEmpty(tag, true)) {
+				body = AbstractParser.wrapRequest(parser.getMethod(), tag, body, false);
+			}
+			return parser.parseResponse(body == null ? new JSONObject(true) : body);
+		}
+		catch (Exception e) {
+			return APIJSONParser.newErrorResult(e);
+		}
+	}
+
+	/**写出一项结果，每项写完都 flush，客户端可以尽早处理
+	 * @param output
+	 * @param index
+	 * @param response
+	 * @throws IOException
+	 */
+	protected void writeBatchItem(OutputStream output, int index, JSONObject response) throws IOException {
+		if (index > 0) {
+			output.write(',');
+		}
+		com.alibaba.fastjson.JSON.writeJSONString(output, StandardCharsets.UTF_8, response);
+		output.flush();
+	}
+
+
+	/**条件请求，请求头 If-None-Match 和结果的 ETag 相同则直接返回 304，不查数据库
+	 * <br > ETag 由请求内容、用户及请求涉及的表的版本号计算得到，见 {@link APIJSONParser#getETag}
+	 * @param request 只用String，避免encode后未decode
+	 * @param servletRequest
+	 * @param method 只有 GET, HEAD 会计算 ETag
+	 * @param servletResponse
+	 * @throws IOException
+	 */
+	public void parseWithETag(String request, HttpServletRequest servletRequest, RequestMethod method, HttpServletResponse servletResponse) throws IOException {
+		Parser<Long> parser = newParser(servletRequest.getSession(), method);
+		JSONObject req = JSON.parseObject(request);
+
+		String etag = req != null && parser instanceof APIJSONParser ? ((APIJSONParser) parser).getETag(req) : null;
+		if (etag != null && isETagMatched(servletRequest.getHeader("If-None-Match"), etag)) {
+			servletResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			servletResponse.setHeader("ETag", etag);
+			return;
+		}
+
+		JSONObject response = req == null ? parser.parseResponse(request) : parser.parseResponse(req);
+		if (etag != null && JSONResponse.isSuccess(response)) {  // 错误结果可能是临时的，不能让客户端缓存
+			servletResponse.setHeader("ETag", etag);
+		}
+		writeResponse(servletResponse, response);
+	}
+
+	/**条件获取
+	 * @param request 只用String，避免encode后未decode
+	 * @param servletRequest
+	 * @param servletResponse
+	 * @throws IOException
+	 * @see {@link RequestMethod#GET}
+	 */
+	public void getWithETag(String request, HttpServletRequest servletRequest, HttpServletResponse servletResponse) throws IOException {
+		parseWithETag(request, servletRequest, GET, servletResponse);
+	}
+
+	/**条件计数
+	 * @param request 只用String，避免encode后未decode
+	 * @param servletRequest
+	 * @param servletResponse
+	 * @throws IOException
+	 * @see {@link RequestMethod#HEAD}
+	 */
+	public void headWithETag(String request, HttpServletRequest servletRequest, HttpServletResponse servletResponse) throws IOException {
+		parseWithETag(request, servletRequest, HEAD, servletResponse);
+	}
+
+	/**
+	 * @param ifNoneMatch 请求头 If-None-Match，例如 "a", W/"b" 或 *
+	 * @param etag
+	 * @return 是否有和 etag 相同的
+	 */
+	public static boolean isETagMatched(String ifNoneMatch, @NotNull String etag) {
+		if (StringUtil.isEmpty(ifNoneMatch, true)) {
+			return false;
+		}
+
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if (tag.equals("*") || tag.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	/**获取，简单数组查询的结果从 ResultSet 一行一行直接写到 servletResponse，内存占用不随数量增长，
+	 * 不支持流式输出的请求则和 get 一样整个写出
+	 * @param request 只用String，避免encode后未decode
+	 * @param session
+	 * @param servletResponse
+	 * @throws IOException
+	 * @see {@link RequestMethod#GET}
+	 * @see {@link APIJSONParser#getStreamArrayKey(JSONObject)}
+	 */
+	public void streamGet(String request, HttpSession session, ServletResponse servletResponse) throws IOException {
+		servletResponse.setCharacterEncoding(StandardCharsets.UTF_8.name());
+		servletResponse.setContentType("application/json;charset=UTF-8");
+		OutputStream output = servletResponse.getOutputStream();
+
+		Parser<Long> parser = newParser(session, GET);
+		if (parser instanceof APIJSONParser == false) {
+			output.write(parser.parse(request).getBytes(StandardCharsets.UTF_8));
+			output.flush();
+			return;
+		}
+
+		APIJSONParser apijsonParser = ((APIJSONParser) parser).setStreamOutput(output);
+		JSONObject response = apijsonParser.parseResponse(request);
+
+		ArrayStreamWriter writer = apijsonParser.getStreamWriter();
+		if (writer == null) {
+			com.alibaba.fastjson.JSON.writeJSONString(output, StandardCharsets.UTF_8, response);
+			output.flush();
+			return;
+		}
+		writer.finish(response);
+	}
+
 
 	//通用接口，非事务型操作 和 简单事务型操作 都可通过这些接口自动化实现>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
 
@@ -266,6 +758,172 @@ public class APIJSONController {
 	//通用接口，非事务型操作 和 简单事务型操作 都可通过这些接口自动化实现>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
 
 
+	//异步接口，在 ASYNC_EXECUTOR 中执行，不占用容器线程<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<
+
+	/**异步解析请求，结果通过 AsyncContext 写回
+	 * @param request 只用String，避免encode后未decode
+	 * @param servletRequest
+	 * @param method
+	 */
+	public void parseAsync(String request, HttpServletRequest servletRequest, RequestMethod method) {
+		final Parser<Long> parser = newParser(servletRequest.getSession(), method);  // session, requestURL 等只能在容器线程中取
+		executeAsync(servletRequest, new Callable<JSONObject>() {
+
+			@Override
+			public JSONObject call() throws Exception {
+				return parser.parseResponse(request);
+			}
+		});
+	}
+
+	/**异步解析开放请求，结果通过 AsyncContext 写回
+	 * @param method
+	 * @param tag
+	 * @param params
+	 * @param request 只用String，避免encode后未decode
+	 * @param servletRequest
+	 */
+	public void parseByTagAsync(RequestMethod method, String tag, Map<String, String> params, String request, HttpServletRequest servletRequest) {
+		JSONObject req = AbstractParser.wrapRequest(method, tag, JSON.parseObject(request), false);
+		if (req == null) {
+			req = new JSONObject(true);
+		}
+		if (params != null && params.isEmpty() == false) {
+			req.putAll(params);
+		}
+
+		final JSONObject finalReq = req;
+		final Parser<Long> parser = newParser(servletRequest.getSession(), method);
+		executeAsync(servletRequest, new Callable<JSONObject>() {
+
+			@Override
+			public JSONObject call() throws Exception {
+				return parser.parseResponse(finalReq);
+			}
+		});
+	}
+
+	/**在 ASYNC_EXECUTOR 中执行 task，并把结果通过 AsyncContext 写回
+	 * <br > 队列满了直接返回 HTTP 503，超时也返回 HTTP 503 且 body 中的 code 为 408，结果只会写一次
+	 * @param servletRequest
+	 * @param task
+	 */
+	public void executeAsync(HttpServletRequest servletRequest, Callable<JSONObject> task) {
+		final AsyncContext asyncContext = servletRequest.startAsync();
+		if (ASYNC_TIMEOUT > 0) {
+			asyncContext.setTimeout(ASYNC_TIMEOUT);
+		}
+
+		final AtomicBoolean completed = new AtomicBoolean(false);
+		final AtomicReference<Future<?>> futureRef = new AtomicReference<>();
+		asyncContext.addListener(new AsyncListener() {
+
+			@Override
+			public void onTimeout(AsyncEvent event) throws IOException {
+				Future<?> future = futureRef.get();
+				if (future != null) {
+					future.cancel(false);  // 还在排队的不用再执行，执行中的由解析器自己的超时来中断
+				}
+				completeAsync(asyncContext, completed, HttpServletResponse.SC_SERVICE_UNAVAILABLE, APIJSONParser.newErrorResult(new TimeoutException("请求超时，超过了 " + asyncContext.getTimeout() + " ms ！")));
+			}
+
+			@Override
+			public void onError(AsyncEvent event) throws IOException {
+				completed.set(true);  // 连接已断开等，不用再写回
+				Future<?> future = futureRef.get();
+				if (future != null) {
+					future.cancel(false);
+				}
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) throws IOException {
+			}
+
+			@Override
+			public void onComplete(AsyncEvent event) throws IOException {
+			}
+		});
+
+		Runnable runnable = new Runnable() {
+
+			@Override
+			public void run() {
+				if (completed.get()) {
+					return;
+				}
+
+				JSONObject response;
+				try {
+					response = task.call();
+				}
+				catch (Exception e) {
+					Log.e(TAG, "executeAsync  try { response = task.call(); } catch (Exception e) { \n" + e.getMessage());
+					response = APIJSONParser.newErrorResult(e);
+				}
+				completeAsync(asyncContext, completed, 0, response);
+			}
+		};
+
+		ThreadPoolExecutor executor = ASYNC_EXECUTOR;
+		if (executor == null) {
+			runnable.run();
+			return;
+		}
+
+		try {
+			futureRef.set(executor.submit(runnable));
+		}
+		catch (RejectedExecutionException e) {
+			Log.w(TAG, "executeAsync  executor.submit(runnable) >> RejectedExecutionException, queue is full >> 503");
+			completeAsync(asyncContext, completed, HttpServletResponse.SC_SERVICE_UNAVAILABLE
+					, APIJSONParser.newResult(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "服务繁忙，请稍后再试！"));
+		}
+	}
+
+	/**把结果写回并结束异步请求，只有第一次调用有效
+	 * @param asyncContext
+	 * @param completed
+	 * @param status HTTP 状态码，<= 0 则不设置
+	 * @param response
+	 */
+	protected void completeAsync(AsyncContext asyncContext, AtomicBoolean completed, int status, JSONObject response) {
+		if (completed.compareAndSet(false, true) == false) {
+			return;
+		}
+
+		try {
+			ServletResponse servletResponse = asyncContext.getResponse();
+			if (status > 0 && servletResponse instanceof HttpServletResponse) {
+				((HttpServletResponse) servletResponse).setStatus(status);
+			}
+			writeResponse(servletResponse, response);
+		}
+		catch (Exception e) {
+			Log.e(TAG, "completeAsync  try { ... } catch (Exception e) { \n" + e.getMessage());
+		}
+		finally {
+			asyncContext.complete();
+		}
+	}
+
+	/**把结果以 UTF-8 直接序列化到 servletResponse
+	 * @param servletResponse
+	 * @param response
+	 * @throws IOException
+	 */
+	protected void writeResponse(ServletResponse servletResponse, JSONObject response) throws IOException {
+		servletResponse.setCharacterEncoding(StandardCharsets.UTF_8.name());
+		servletResponse.setContentType("application/json;charset=UTF-8");
+
+		OutputStream output = servletResponse.getOutputStream();
+		com.alibaba.fastjson.JSON.writeJSONString(output, StandardCharsets.UTF_8, response);
+		output.flush();
+	}
+
+	//异步接口，在 ASYNC_EXECUTOR 中执行，不占用容器线程>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>
+
+
 
 
 	/**重新加载配置
@@ -17,10 +17,14 @@ package apijson.framework;
 import static apijson.framework.APIJSONConstant.FUNCTION_;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.rmi.ServerException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.servlet.http.HttpSession;
 
@@ -52,6 +56,18 @@ public class APIJSONFunctionParser extends AbstractFunctionParser {
 		APIJSON_CREATOR = new APIJSONCreator();
 	}
 
+	/**
+	 * 远程函数配置的只读快照，init 在旁边建好新的再整个替换，读取不用加锁，也不会读到清空或只加载了一半的
+	 */
+	private static volatile Map<String, JSONObject> FUNCTION_SNAPSHOT;
+
+	/**
+	 * @return 还没有调用 init 则为 null
+	 */
+	public static Map<String, JSONObject> getFunctionSnapshot() {
+		return FUNCTION_SNAPSHOT;
+	}
+
 	private HttpSession session;
 	public APIJSONFunctionParser() {
 		this(null);
@@ -87,6 +103,62 @@ public class APIJSONFunctionParser extends AbstractFunctionParser {
 		return this;
 	}
 
+	/**反射调用，读取 FUNCTION_SNAPSHOT，不读 FUNCTION_MAP，避免 init 期间读到不完整的
+	 * @param function 例如get(object,key)，参数只允许引用，不能直接传值
+	 * @param currentObject
+	 * @return
+	 * @throws Exception
+	 */
+	@Override
+	public Object invoke(@NotNull String function, @NotNull JSONObject currentObject) throws Exception {
+		Map<String, JSONObject> functionMap = FUNCTION_SNAPSHOT;
+		if (functionMap == null) {  // 还没有调用 init
+			return super.invoke(function, currentObject);
+		}
+
+		FunctionBean fb = parseFunction(function, currentObject, false);
+
+		JSONObject row = functionMap.get(fb.getMethod());
+		if (row == null) {
+			throw new UnsupportedOperationException("不允许调用远程函数 " + fb.getMethod() + " !");
+		}
+
+		int v = row.getIntValue("version");
+		if (getVersion() < v) {
+			throw new UnsupportedOperationException("不允许 version = " + getVersion() + " 的请求调用远程函数 " + fb.getMethod() + " ! 必须满足 version >= " + v + " !");
+		}
+		String t = row.getString("tag");
+		if (t != null && t.equals(getTag()) == false) {
+			throw new UnsupportedOperationException("不允许 tag = " + getTag() + " 的请求调用远程函数 " + fb.getMethod() + " ! 必须满足 tag = " + t + " !");
+		}
+		String[] methods = StringUtil.split(row.getString("methods"));
+		List<String> ml = methods == null || methods.length <= 0 ? null : Arrays.asList(methods);
+		if (ml != null && ml.contains(getMethod().toString()) == false) {
+			throw new UnsupportedOperationException("不允许 method = " + getMethod() + " 的请求调用远程函数 " + fb.getMethod() + " ! 必须满足 method 在 " + Arrays.toString(methods) + "内 !");
+		}
+
+		try {
+			return invoke(this, fb.getMethod(), fb.getTypes(), fb.getValues());
+		} catch (Exception e) {
+			if (e instanceof NoSuchMethodException) {
+				throw new IllegalArgumentException("字符 " + function + " 对应的远程函数 " + getFunction(fb.getMethod(), fb.getKeys()) + " 不在后端工程的DemoFunction内！"
+						+ "\n请检查函数名和参数数量是否与已定义的函数一致！"
+						+ "\n且必须为 function(key0,key1,...) 这种单函数格式！"
+						+ "\nfunction必须符合Java函数命名，key是用于在request内取值的键！"
+						+ "\n调用时不要有空格！");
+			}
+			if (e instanceof InvocationTargetException) {
+				Throwable te = ((InvocationTargetException) e).getTargetException();
+				if (StringUtil.isEmpty(te.getMessage(), true) == false) {
+					throw te instanceof Exception ? (Exception) te : new Exception(te.getMessage());
+				}
+				throw new IllegalArgumentException("字符 " + function + " 对应的远程函数传参类型错误！"
+						+ "\n请检查 key:value 中value的类型是否满足已定义的函数 " + getFunction(fb.getMethod(), fb.getKeys()) + " 的要求！");
+			}
+			throw e;
+		}
+	}
+
 	/**初始化，加载所有远程函数配置，并校验是否已在应用层代码实现
 	 * @return 
 	 * @throws ServerException
@@ -155,10 +227,15 @@ public class APIJSONFunctionParser extends AbstractFunctionParser {
 			throw new NullPointerException("没有可用的远程函数");
 		}
 		
-		if (table == null || table.isEmpty()) {  // 全量更新
-			FUNCTION_MAP.clear();
+		Map<String, JSONObject> functionMap = new HashMap<>();
+		if (isAll == false) {  // 增量更新，在现有的基础上改
+			Map<String, JSONObject> snapshot = FUNCTION_SNAPSHOT;
+			functionMap.putAll(snapshot != null ? snapshot : FUNCTION_MAP);
 		}
 
+		List<JSONObject> demoList = new ArrayList<>(size);
+		List<JSONObject> itemList = new ArrayList<>(size);
+
 		JSONObject item;
 		for (int i = 0; i < size; i++) {
 			item = list.getJSONObject(i);
@@ -177,7 +254,18 @@ public class APIJSONFunctionParser extends AbstractFunctionParser {
 			//			demo.put(JSONRequest.KEY_TAG, item.getString(JSONRequest.KEY_TAG));
 			//			demo.put(JSONRequest.KEY_VERSION, item.getInteger(JSONRequest.KEY_VERSION));
 
-			FUNCTION_MAP.put(name, item);  //必须在测试 invoke 前！
+			functionMap.put(name, item);
+			demoList.add(demo);
+			itemList.add(item);
+		}
+
+		// 先发布再测试，测试的 invoke 才能找到新的函数，测试不通过则恢复为原来的
+		Map<String, JSONObject> oldSnapshot = FUNCTION_SNAPSHOT;
+		publishFunctionMap(Collections.unmodifiableMap(functionMap));
+
+		for (int i = 0; i < demoList.size(); i++) {
+			item = itemList.get(i);
+			JSONObject demo = demoList.get(i);
 
 			String[] methods = StringUtil.split(item.getString("methods"));
 			JSONObject r = new APIJSONParser(
@@ -189,6 +277,9 @@ public class APIJSONFunctionParser extends AbstractFunctionParser {
 					.parseResponse(demo);
 
 			if (JSONResponse.isSuccess(r) == false) {
+				if (oldSnapshot != null) {
+					publishFunctionMap(oldSnapshot);
+				}
 				onServerError(JSONResponse.getMsg(r), shutdownWhenServerError);
 			}
 
@@ -197,6 +288,11 @@ public class APIJSONFunctionParser extends AbstractFunctionParser {
 		return response;
 	}
 
+	private static void publishFunctionMap(@NotNull Map<String, JSONObject> functionMap) {
+		FUNCTION_SNAPSHOT = functionMap;
+		APIJSONVerifier.replaceMap(FUNCTION_MAP, functionMap);
+	}
+
 
 	private static void onServerError(String msg, boolean shutdown) throws ServerException {
 		Log.e(TAG, "\n远程函数文档测试未通过！\n请新增 demo 里的函数，或修改 Function 表里的 demo 为已有的函数示例！\n保证前端看到的远程函数文档是正确的！！！\n\n原因：\n" + msg);
@@ -18,14 +18,17 @@ import java.util.List;
 
 import javax.servlet.http.HttpSession;
 
+import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 
+import apijson.JSONRequest;
 import apijson.NotNull;
 import apijson.RequestMethod;
 import apijson.orm.AbstractObjectParser;
 import apijson.orm.AbstractParser;
 import apijson.orm.Join;
 import apijson.orm.SQLConfig;
+import apijson.orm.SQLExecutor;
 
 
 /**简化Parser，getObject和getArray(getArrayConfig)都能用
@@ -62,6 +65,46 @@ public class APIJSONObjectParser extends AbstractObjectParser {
 	}
 
 
+	/**批量新增/修改 Table[]:[{}] 时用 JDBC 批处理，而不是每行单独执行一次
+	 */
+	@Override
+	public void onTableArrayParse(String key, JSONArray value) throws Exception {
+		SQLExecutor executor = parser.getSQLExecutor();
+		if (executor instanceof APIJSONSQLExecutor == false || APIJSONSQLExecutor.MAX_BATCH_SIZE <= 1
+				|| (method != RequestMethod.POST && method != RequestMethod.PUT) || value == null || value.size() <= 1
+				|| ((APIJSONSQLExecutor) executor).isBatch()) {
+			super.onTableArrayParse(key, value);
+			return;
+		}
+
+		APIJSONSQLExecutor batchExecutor = (APIJSONSQLExecutor) executor;
+		List<SQLConfig> configList;
+		batchExecutor.beginBatch();
+		try {
+			super.onTableArrayParse(key, value);
+			configList = batchExecutor.endBatch();
+		}
+		catch (Exception e) {
+			batchExecutor.cancelBatch();
+			throw e;
+		}
+
+		// 数据库自增的 id 在 executeBatch 后才有，补充到 id[] 中
+		String childKey = key.substring(0, key.length() - JSONRequest.KEY_ARRAY.length());
+		JSONObject allResult = response == null ? null : response.getJSONObject(childKey);
+		JSONArray ids = allResult == null ? null : allResult.getJSONArray(parser.createSQLConfig().getIdKey() + "[]");
+		if (ids == null || configList == null || ids.size() != configList.size()) {
+			return;
+		}
+
+		for (int i = 0; i < ids.size(); i++) {
+			if (ids.get(i) == null) {
+				ids.set(i, configList.get(i).getId());
+			}
+		}
+	}
+
+
 	@Override
 	public SQLConfig newSQLConfig(RequestMethod method, String table, String alias, JSONObject request, List<Join> joinList, boolean isProcedure) throws Exception {
 		return APIJSONSQLConfig.newSQLConfig(method, table, alias, request, joinList, isProcedure);
@@ -14,25 +14,57 @@ limitations under the License.*/
 
 package apijson.framework;
 
+import static apijson.framework.APIJSONConstant.ARRAY_FORMAT;
+import static apijson.framework.APIJSONConstant.COLUMNAR;
 import static apijson.framework.APIJSONConstant.DEFAULTS;
 import static apijson.framework.APIJSONConstant.FORMAT;
+import static apijson.framework.APIJSONConstant.PRIMARY_UNTIL;
+import static apijson.framework.APIJSONConstant.TIMEOUT;
 import static apijson.framework.APIJSONConstant.VERSION;
 
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.http.HttpSession;
 
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 
+import apijson.JSONRequest;
+import apijson.JSONResponse;
+import apijson.Log;
 import apijson.NotNull;
 import apijson.RequestMethod;
+import apijson.StringUtil;
 import apijson.orm.AbstractParser;
 import apijson.orm.FunctionParser;
 import apijson.orm.Parser;
 import apijson.orm.SQLConfig;
 import apijson.orm.SQLExecutor;
 import apijson.orm.Verifier;
+import apijson.orm.Visitor;
 
 
 /**请求解析器
@@ -46,8 +78,55 @@ public class APIJSONParser extends AbstractParser<Long> {
 	static {
 		APIJSON_CREATOR = new APIJSONCreator();
 	}
+
+	/**
+	 * 流式输出时数组的最大数量，数据不在内存中保存，可以比 MAX_QUERY_COUNT 大很多
+	 */
+	public static int MAX_STREAM_QUERY_COUNT = 10000;
+
+	/**
+	 * 每个 GET, HEAD 请求中最多同时查询的互不依赖的顶层对象组数，每组用一个单独的连接，<= 1 则不并发
+	 */
+	public static int MAX_PARALLEL_COUNT = 4;
+	/**
+	 * 并发查询互不依赖的顶层对象的线程池，队列满了则由请求线程自己执行，设置为 null 则不并发
+	 */
+	public static ThreadPoolExecutor PARALLEL_EXECUTOR;
+	static {
+		int size = Math.max(4, 2*Runtime.getRuntime().availableProcessors());
+		PARALLEL_EXECUTOR = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(256), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, TAG + "-parallel-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+		PARALLEL_EXECUTOR.allowCoreThreadTimeOut(true);
+	}
 	
 	
+	/**
+	 * 默认的请求超时时间，单位 ms，<= 0 则不限制
+	 */
+	public static long DEFAULT_TIMEOUT = 30*1000;
+	/**
+	 * 客户端通过 "@timeout": 5000 最多可以设置的超时时间，单位 ms，<= 0 则不允许客户端设置
+	 */
+	public static long MAX_TIMEOUT = 60*1000;
+	/**
+	 * 按 tag 配置的超时时间，<tag, timeout>，优先于 DEFAULT_TIMEOUT
+	 */
+	public static final Map<String, Long> TAG_TIMEOUT_MAP;
+	static {
+		TAG_TIMEOUT_MAP = new HashMap<>();
+		//		TAG_TIMEOUT_MAP.put("Moment", 5*1000L);
+		//		TAG_TIMEOUT_MAP.put("Comment[]", 10*1000L);
+	}
+
+
 	public APIJSONParser() {
 		super();
 	}
@@ -86,14 +165,393 @@ public class APIJSONParser extends AbstractParser<Long> {
 	public SQLConfig createSQLConfig() {
 		return APIJSON_CREATOR.createSQLConfig();
 	}
+	/**获取 Request 表中的 structure，读取 APIJSONVerifier 的快照，不读 REQUEST_MAP，避免 initRequest 期间读到不完整的
+	 * <br > 快照是只读的，所以不像 AbstractParser 那样把找到的最接近版本缓存进去，反正每个 method + tag 的版本也不多
+	 * @param table
+	 * @param method
+	 * @param tag
+	 * @param version
+	 * @return
+	 * @throws Exception
+	 */
+	@Override
+	public JSONObject getStructure(@NotNull String table, String method, String tag, int version) throws Exception {
+		Map<String, SortedMap<Integer, JSONObject>> requestMap = APIJSONVerifier.getRequestSnapshot();
+		if (requestMap == null) {  // 还没有调用 initRequest，查数据库
+			return super.getStructure(table, method, tag, version);
+		}
+
+		SortedMap<Integer, JSONObject> versionedMap = requestMap.get(APIJSONVerifier.getCacheKeyForRequest(method, tag));
+		JSONObject result = versionedMap == null ? null : versionedMap.get(Integer.valueOf(version));
+		if (result == null && versionedMap != null) {  // version <= 0 时使用最新，version > 0 时使用 > version 的最接近版本（最小版本）
+			for (Map.Entry<Integer, JSONObject> entry : versionedMap.entrySet()) {  // 降序
+				if (entry.getKey() == null || entry.getValue() == null) {
+					continue;
+				}
+				if (version > 0 && entry.getKey() < version) {
+					break;
+				}
+
+				result = entry.getValue();
+				if (version <= 0) {
+					break;
+				}
+			}
+		}
+
+		return result == null ? null : getJSONObject(result, "structure");  // 解决返回值套了一层 "structure":{}
+	}
+
 	@Override
 	public SQLExecutor createSQLExecutor() {
-		return APIJSON_CREATOR.createSQLExecutor();
+		SQLExecutor executor = sharedSQLExecutor != null ? sharedSQLExecutor : APIJSON_CREATOR.createSQLExecutor();
+		if (executor == sharedSQLExecutor) {
+			sqlCountOffset = executor.getExecutedSQLCount();
+		}
+		if (executor instanceof APIJSONSQLExecutor) {
+			APIJSONSQLExecutor apijsonExecutor = (APIJSONSQLExecutor) executor;
+			if (executor == sharedSQLExecutor) {
+				apijsonExecutor.reset();
+			}
+			if (streamWriter != null) {
+				apijsonExecutor.setStreamWriter(streamWriter);
+			}
+			if (isPrimaryPinned()) {
+				apijsonExecutor.setPrimary(true);
+			}
+			if (deadline > 0) {
+				apijsonExecutor.setDeadline(deadline);
+			}
+		}
+		return executor;
+	}
+
+
+	private SQLExecutor sharedSQLExecutor;
+	private int sqlCountOffset;
+	public SQLExecutor getSharedSQLExecutor() {
+		return sharedSQLExecutor;
+	}
+	/**设置后和其它请求共用这个 SQLExecutor 及它的连接，解析完不会关闭，由调用方关闭
+	 * @param sharedSQLExecutor
+	 * @return
+	 */
+	public APIJSONParser setSharedSQLExecutor(SQLExecutor sharedSQLExecutor) {
+		this.sharedSQLExecutor = sharedSQLExecutor;
+		return this;
 	}
 
+	@Override
+	public int getMaxSQLCount() {
+		return super.getMaxSQLCount() + sqlCountOffset;  // 共用的 SQLExecutor 中的数量包括之前的请求执行的
+	}
 
 	@Override
-	public JSONObject parseResponse(JSONObject request) {
+	public void close() {
+		if (sharedSQLExecutor != null && sqlExecutor == sharedSQLExecutor) {
+			return;
+		}
+		super.close();
+	}
+
+
+	private long deadline;
+	public long getDeadline() {
+		return deadline;
+	}
+	/**设置请求的截止时间，不设置则在 parseResponse 中根据 getTimeout 计算
+	 * @param deadline System.currentTimeMillis() 的时间点，<= 0 则不限制
+	 * @return
+	 */
+	public APIJSONParser setDeadline(long deadline) {
+		this.deadline = deadline;
+		return this;
+	}
+
+	/**获取请求的超时时间，客户端传的 @timeout 优先，然后是 TAG_TIMEOUT_MAP 中 tag 对应的，最后是 DEFAULT_TIMEOUT
+	 * @param request
+	 * @param timeout 客户端传的 @timeout
+	 * @return 单位 ms，<= 0 则不限制
+	 * @throws IllegalArgumentException @timeout 不合法
+	 */
+	public long getTimeout(@NotNull JSONObject request, Object timeout) {
+		if (timeout != null) {
+			long t;
+			try {
+				t = Long.parseLong(timeout.toString());
+			}
+			catch (NumberFormatException e) {
+				throw new IllegalArgumentException(TIMEOUT + ":value 中 value 的类型只能是 Long ！");
+			}
+			if (t <= 0 || t > MAX_TIMEOUT) {
+				throw new IllegalArgumentException(TIMEOUT + ":value 中 value 必须在 1-" + MAX_TIMEOUT + " 内 !");
+			}
+			return t;
+		}
+
+		String tag = request.getString(JSONRequest.KEY_TAG);
+		Long t = tag == null ? null : TAG_TIMEOUT_MAP.get(tag);
+		return t != null ? t : DEFAULT_TIMEOUT;
+	}
+
+	/**检查是否已超时
+	 * @throws TimeoutException
+	 */
+	public void checkDeadline() throws TimeoutException {
+		if (deadline > 0 && System.currentTimeMillis() >= deadline) {
+			throw new TimeoutException("请求超时，已超过截止时间 " + deadline + " ！");
+		}
+	}
+
+	@Override
+	public JSONObject onObjectParse(JSONObject request, String parentPath, String name, SQLConfig arrayConfig, boolean isSubquery) throws Exception {
+		checkDeadline();  // 每个子对象、数组的每一项都检查，超时后不再继续查
+		return super.onObjectParse(request, parentPath, name, arrayConfig, isSubquery);
+	}
+
+	/**数组中有 "@format": "columnar" 时返回列式的结果 [[列名...], [值...], [值...]]，不用每一项都重复列名
+	 */
+	@Override
+	public JSONArray onArrayParse(JSONObject request, String parentPath, String name, boolean isSubquery) throws Exception {
+		Object format = isSubquery || request == null ? null : request.remove(ARRAY_FORMAT);
+		if (format != null && COLUMNAR.equals(format) == false) {
+			throw new IllegalArgumentException(getAbsPath(parentPath, name) + "/" + ARRAY_FORMAT + ":value 中 value 只能是 " + COLUMNAR + " ！");
+		}
+
+		JSONArray array = super.onArrayParse(request, parentPath, name, isSubquery);
+		return format == null ? array : toColumnar(array);
+	}
+
+	/**把 [{key0:value0, key1:value1}, ...] 转为 [[key0, key1], [value0, value1], ...]
+	 * <br > 列名按第一次出现的顺序排列，某一项中没有的列值为 null
+	 * <br > "Table[]": { "Table": {} } 中除了第 0 项都是 APIJSONSQLExecutor 查到的 CompactRow，直接取值数组，列为 SQL 查到的所有列；
+	 * 第 0 项由 ObjectParser 复制成了普通的 JSONObject，没有 CompactRow 以外的 key 时按列取值，否则都按普通的方式转换
+	 * @param array
+	 * @return
+	 */
+	public static JSONArray toColumnar(JSONArray array) {
+		if (array == null) {
+			return null;
+		}
+
+		RowDecoder decoder = null;
+		for (Object item : array) {
+			Map<String, Object> map = item instanceof JSONObject ? ((JSONObject) item).getInnerMap() : null;
+			if (map instanceof CompactRow) {
+				decoder = ((CompactRow) map).getDecoder();
+				break;
+			}
+		}
+		String[] columns = decoder == null ? null : decoder.getColumns();
+		if (decoder != null) {
+			for (Object item : array) {
+				if (isRowOf(item, decoder) == false) {
+					decoder = null;
+					break;
+				}
+			}
+		}
+
+		JSONArray columnar = new JSONArray(array.size() + 1);
+		if (decoder != null) {  // 都是同一条 SQL 查到的完整的行
+			columnar.add(new JSONArray(new ArrayList<Object>(Arrays.asList((Object[]) columns))));
+			for (Object item : array) {
+				Map<String, Object> map = ((JSONObject) item).getInnerMap();
+				if (map instanceof CompactRow) {
+					columnar.add(new JSONArray(((CompactRow) map).getValueList()));
+					continue;
+				}
+
+				List<Object> values = new ArrayList<>(columns.length);
+				for (String column : columns) {
+					values.add(map.get(column));
+				}
+				columnar.add(new JSONArray(values));
+			}
+			return columnar;
+		}
+
+		Map<String, Integer> indexMap = new LinkedHashMap<>();
+		for (Object item : array) {
+			if (item instanceof Map) {
+				for (Object key : ((Map<?, ?>) item).keySet()) {
+					String k = String.valueOf(key);
+					if (indexMap.containsKey(k) == false) {
+						indexMap.put(k, indexMap.size());
+					}
+				}
+			}
+		}
+
+		columnar.add(new JSONArray(new ArrayList<Object>(indexMap.keySet())));
+		for (Object item : array) {
+			Object[] values = new Object[indexMap.size()];
+			if (item instanceof Map) {
+				for (Map.Entry<?, ?> entry : ((Map<?, ?>) item).entrySet()) {
+					values[indexMap.get(String.valueOf(entry.getKey()))] = entry.getValue();
+				}
+			}
+			columnar.add(new JSONArray(new ArrayList<Object>(Arrays.asList(values))));
+		}
+		return columnar;
+	}
+
+	/**
+	 * @param item
+	 * @param decoder
+	 * @return 是否为 decoder 对应的 CompactRow，或者是 key 都在 decoder.getColumns() 中且顺序一致的 JSONObject，值为 null 的列可以没有
+	 */
+	private static boolean isRowOf(Object item, @NotNull RowDecoder decoder) {
+		Map<String, Object> map = item instanceof JSONObject ? ((JSONObject) item).getInnerMap() : null;
+		if (map instanceof CompactRow) {
+			CompactRow row = (CompactRow) map;
+			return row.getDecoder() == decoder && row.hasExtra() == false;
+		}
+		if (map == null) {
+			return false;
+		}
+
+		int last = -1;
+		for (String key : map.keySet()) {
+			int slot = decoder.getSlot(key);
+			if (slot <= last) {
+				return false;
+			}
+			last = slot;
+		}
+		return true;
+	}
+
+	/**
+	 * 写操作成功后，同一个 session 在多长时间内的读操作也在主库，避免从库同步延迟导致读不到刚写入的数据，单位 ms，<= 0 则不处理
+	 */
+	public static long PIN_PRIMARY_TIME = 3000;
+
+	/**当前 session 是否在写操作后的 PIN_PRIMARY_TIME 内
+	 * @return
+	 */
+	public boolean isPrimaryPinned() {
+		HttpSession session = getSession();
+		Object until = session == null || PIN_PRIMARY_TIME <= 0 ? null : session.getAttribute(PRIMARY_UNTIL);
+		return until instanceof Long && (Long) until > System.currentTimeMillis();
+	}
+
+	@Override
+	protected void onCommit() {
+		super.onCommit();
+
+		HttpSession session = getSession();
+		if (session != null && PIN_PRIMARY_TIME > 0 && RequestMethod.isQueryMethod(getMethod()) == false) {
+			session.setAttribute(PRIMARY_UNTIL, System.currentTimeMillis() + PIN_PRIMARY_TIME);
+		}
+	}
+
+
+	private OutputStream streamOutput;
+	/**设置后，如果是简单的数组 GET 请求，则数组中的每一行查到后直接写到 streamOutput，
+	 * 最后需要调用 getStreamWriter().finish(response) 来写出剩下的部分
+	 * @param streamOutput
+	 * @return
+	 */
+	public APIJSONParser setStreamOutput(OutputStream streamOutput) {
+		this.streamOutput = streamOutput;
+		return this;
+	}
+	private ArrayStreamWriter streamWriter;
+	/**
+	 * @return 不是流式输出则为 null，需要自己把 response 写出
+	 */
+	public ArrayStreamWriter getStreamWriter() {
+		return streamWriter;
+	}
+
+	@Override
+	public int getMaxQueryCount() {
+		return streamWriter == null ? super.getMaxQueryCount() : Math.max(super.getMaxQueryCount(), MAX_STREAM_QUERY_COUNT);
+	}
+
+	/**获取可以流式输出的数组 key，只支持 { "Table[]": { "Table": {} } } 或 { "[]": { "Table": {} } } 这种简单的数组 GET 请求，
+	 * 不能有引用赋值、远程函数、JOIN、子查询、子对象及其它的顶层对象，format 不能为 true
+	 * @param request
+	 * @return 不支持则返回 null
+	 */
+	public static String getStreamArrayKey(JSONObject request) {
+		if (request == null || Boolean.TRUE.equals(request.get(FORMAT)) || Boolean.TRUE.equals(request.get(JSONRequest.KEY_EXPLAIN))) {
+			return null;
+		}
+
+		String arrayKey = null;
+		for (Map.Entry<String, Object> entry : request.entrySet()) {
+			String key = entry.getKey();
+			if (key == null) {
+				return null;
+			}
+			if (key.startsWith("@") || JSONRequest.KEY_TAG.equals(key) || VERSION.equals(key) || FORMAT.equals(key)) {  // @role, @database 等全局关键词
+				continue;
+			}
+			if (arrayKey != null || JSONRequest.isArrayKey(key) == false || entry.getValue() instanceof JSONObject == false) {
+				return null;
+			}
+			arrayKey = key;
+		}
+
+		return arrayKey == null || getStreamTable(arrayKey, request.getJSONObject(arrayKey)) == null ? null : arrayKey;
+	}
+
+	/**获取流式输出的数组中的表名
+	 * @param arrayKey
+	 * @param arrayObject
+	 * @return 不支持流式输出则返回 null
+	 */
+	public static String getStreamTable(@NotNull String arrayKey, JSONObject arrayObject) {
+		if (arrayObject == null) {
+			return null;
+		}
+
+		String table = null;
+		for (Map.Entry<String, Object> entry : arrayObject.entrySet()) {
+			String key = entry.getKey();
+			Object value = entry.getValue();
+			if (JSONRequest.KEY_COUNT.equals(key) || JSONRequest.KEY_PAGE.equals(key)) {
+				continue;
+			}
+			if (JSONRequest.KEY_QUERY.equals(key)) {  // total 等需要另外查询
+				if (value == null || "0".equals(String.valueOf(value)) || JSONRequest.QUERY_TABLE_STRING.equals(value)) {
+					continue;
+				}
+				return null;
+			}
+			if (table != null || apijson.JSONObject.isTableKey(key) == false || value instanceof JSONObject == false
+					|| isStreamableTableObject((JSONObject) value) == false) {
+				return null;
+			}
+			table = key;
+		}
+
+		// Table-key[] 这种提取字段的，及 Other[]:{ Table:{} } 中 Other 为表名的都不支持
+		String prefix = arrayKey.substring(0, arrayKey.length() - apijson.JSONObject.KEY_ARRAY.length());
+		if (table == null || (prefix.isEmpty() == false && prefix.equals(table) == false)) {
+			return null;
+		}
+		return table;
+	}
+
+	private static boolean isStreamableTableObject(JSONObject tableObject) {
+		for (Map.Entry<String, Object> entry : tableObject.entrySet()) {
+			String key = entry.getKey();
+			if (StringUtil.isEmpty(key, true) || key.endsWith("@") || key.endsWith("()")
+					|| apijson.JSONObject.KEY_FROM.equals(key) || entry.getValue() instanceof JSONObject) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**补充 session 中的 format 和 defaults，可以重复调用
+	 * @param request
+	 */
+	protected void putSessionDefaults(JSONObject request) {
 		//补充format
 		if (session != null && request != null) {
 			if (request.get(FORMAT) == null) {
@@ -112,9 +570,738 @@ public class APIJSONParser extends AbstractParser<Long> {
 				}
 			}
 		}
+	}
+
+	@Override
+	public JSONObject parseResponse(JSONObject request) {
+		putSessionDefaults(request);
+
+		if (request != null) {
+			Object timeout = request.remove(TIMEOUT);
+			if (deadline <= 0) {
+				try {
+					long t = getTimeout(request, timeout);
+					if (t > 0) {
+						deadline = System.currentTimeMillis() + t;
+					}
+				}
+				catch (Exception e) {
+					return extendErrorResult(request, e);
+				}
+			}
+		}
+
+		RequestMethod method = getMethod();
+		if (coalesce && COALESCE && streamOutput == null && (method == RequestMethod.GET || method == RequestMethod.HEAD) && request != null) {
+			return parseCoalescedResponse(request);
+		}
+
+		return parseLimitedResponse(request, null);
+	}
+
+	/**按 method + tag 对应的舱壁限制同时处理的请求数，超出则直接返回 429
+	 * @param request
+	 * @param plan 为 null 则需要时再获取
+	 * @return
+	 */
+	protected JSONObject parseLimitedResponse(JSONObject request, RequestPlan plan) {
+		Bulkhead bulkhead = this.bulkhead && request != null ? Bulkhead.get(getMethod(), request.getString(JSONRequest.KEY_TAG)) : null;
+		if (bulkhead == null) {
+			return parsePlannedResponse(request, plan);
+		}
+
+		long maxWait = deadline > 0 ? Math.max(1, deadline - System.currentTimeMillis()) : 0;
+		if (bulkhead.acquire(maxWait) == false) {
+			Log.w(TAG, "parseLimitedResponse  bulkhead.acquire(maxWait) == false >> key = " + bulkhead.getKey()
+					+ ", inFlight = " + bulkhead.getInFlight() + ", waiting = " + bulkhead.getWaiting());
+			return newResult(Bulkhead.CODE_TOO_MANY_REQUESTS, "接口 " + bulkhead.getKey() + " 请求太多，服务繁忙，请稍后再试！");
+		}
+
+		try {
+			return parsePlannedResponse(request, plan);
+		}
+		finally {
+			bulkhead.release();
+		}
+	}
+
+	private boolean bulkhead = true;
+	public boolean isBulkhead() {
+		return bulkhead;
+	}
+	/**
+	 * @param bulkhead 是否受 Bulkhead 限制，同一个请求拆出来的子请求不用再限制，否则可能互相等待
+	 * @return
+	 */
+	public APIJSONParser setBulkhead(boolean bulkhead) {
+		this.bulkhead = bulkhead;
+		return this;
+	}
+
+	/**按执行计划解析，可流式输出的数组流式输出，可并发的顶层对象并发查询
+	 * @param request
+	 * @param plan 为 null 则需要时再获取
+	 * @return
+	 */
+	protected JSONObject parsePlannedResponse(JSONObject request, RequestPlan plan) {
+		if (streamOutput != null && streamWriter == null && RequestMethod.isGetMethod(getMethod(), true) && request != null) {
+			if (plan == null) {
+				plan = getPlan(request);
+			}
+			String arrayKey = plan.getStreamArrayKey();
+			if (arrayKey != null) {
+				streamWriter = new ArrayStreamWriter(streamOutput, arrayKey, plan.getStreamTable());
+			}
+		}
+
+		RequestMethod method = getMethod();
+		if (parallel && streamWriter == null && MAX_PARALLEL_COUNT > 1 && PARALLEL_EXECUTOR != null
+				&& (method == RequestMethod.GET || method == RequestMethod.HEAD) && request != null
+				&& Boolean.TRUE.equals(request.get(FORMAT)) == false) {  // format 会改变 key，没法按原来的 key 合并
+			List<List<String>> groupList = (plan != null ? plan : getPlan(request)).getParallelGroupList();
+			if (groupList != null && groupList.size() > 1) {
+				return parseParallelResponse(request, groupList);
+			}
+		}
+
 		return super.parseResponse(request);
 	}
 
+
+	/**
+	 * 是否合并同时进行的相同 GET, HEAD 请求，合并后只解析和查询一次，所有请求共用结果
+	 */
+	public static boolean COALESCE = true;
+	/**
+	 * <合并的 key, 正在进行的请求>
+	 */
+	protected static final Map<String, Flight> FLIGHT_MAP = new ConcurrentHashMap<>();
+	private static final AtomicLong COALESCE_REQUEST_COUNT = new AtomicLong();
+	private static final AtomicLong COALESCED_COUNT = new AtomicLong();
+
+	/**
+	 * @return 参与合并的请求总数
+	 */
+	public static long getCoalesceRequestCount() {
+		return COALESCE_REQUEST_COUNT.get();
+	}
+	/**
+	 * @return 直接用了其它请求结果的请求数
+	 */
+	public static long getCoalescedCount() {
+		return COALESCED_COUNT.get();
+	}
+	/**
+	 * @return 合并率，COALESCED_COUNT / COALESCE_REQUEST_COUNT
+	 */
+	public static double getCoalescingRatio() {
+		long total = COALESCE_REQUEST_COUNT.get();
+		return total <= 0 ? 0 : (double) COALESCED_COUNT.get() / total;
+	}
+
+	private boolean coalesce = true;
+	public boolean isCoalesce() {
+		return coalesce;
+	}
+	/**
+	 * @param coalesce 是否和同时进行的相同请求合并
+	 * @return
+	 */
+	public APIJSONParser setCoalesce(boolean coalesce) {
+		this.coalesce = coalesce;
+		return this;
+	}
+
+	/**合并同时进行的相同请求，第一个请求解析，其它的等它的结果
+	 * <br > 请求中有 @role 或 远程函数 的只和同一个用户的合并，否则只和登录状态相同的合并
+	 * @param request
+	 * @return
+	 */
+	protected JSONObject parseCoalescedResponse(@NotNull JSONObject request) {
+		RequestPlan plan = getPlan(request);
+		String key = getRequestKey(request);
+
+		COALESCE_REQUEST_COUNT.incrementAndGet();
+
+		Flight flight = new Flight();
+		Flight current = FLIGHT_MAP.putIfAbsent(key, flight);
+		if (current != null) {
+			try {
+				JSONObject response = current.await(deadline);
+				if (response != null) {
+					COALESCED_COUNT.incrementAndGet();
+					return response;
+				}
+			}
+			catch (Exception e) {
+				if (e instanceof InterruptedException) {
+					Thread.currentThread().interrupt();
+				}
+				return extendErrorResult(request, e);
+			}
+
+			return parseLimitedResponse(request, plan);  // 第一个请求异常结束，自己解析
+		}
+
+		JSONObject response = null;
+		try {
+			response = parseLimitedResponse(request, plan);
+			return response;
+		}
+		finally {
+			FLIGHT_MAP.remove(key, flight);
+			flight.complete(response);
+		}
+	}
+
+	/**获取请求的唯一标识，结果相同的请求标识相同
+	 * <br > 请求中有 @role 或 远程函数 的包含用户 id，否则只包含登录状态。
+	 * 这里每个请求都重新判断，不用缓存的 RequestPlan，用户隔离不依赖执行计划缓存的正确性
+	 * @param request
+	 * @return
+	 */
+	protected String getRequestKey(@NotNull JSONObject request) {
+		Visitor<Long> visitor = getVisitor();
+		Object visitorId = visitor == null ? null : visitor.getId();
+		return getMethod() + "\n" + isNeedVerifyLogin() + "," + isNeedVerifyRole() + "," + isNeedVerifyContent()
+				+ "\n" + (isVisitorDependent(request) ? String.valueOf(visitorId) : (visitorId == null ? "" : "LOGIN"))
+				+ "\n" + JSON.toJSONString(request);
+	}
+
+
+	/**
+	 * 是否给 GET, HEAD 请求的结果计算 ETag
+	 */
+	public static boolean ETAG = true;
+
+	/**获取 GET, HEAD 请求结果的 ETag，由请求的唯一标识及请求涉及的表的版本号计算得到，不用查数据库
+	 * <br > 需要在 parseResponse 前调用，这样查询期间表被修改了也只会让 ETag 变旧，不会让旧数据对应新的 ETag
+	 * @param request
+	 * @return 不支持则为 null，例如有远程函数或没有表
+	 * @see #getTableVersion
+	 */
+	public String getETag(@NotNull JSONObject request) {
+		RequestMethod method = getMethod();
+		if (ETAG == false || (method != RequestMethod.GET && method != RequestMethod.HEAD)) {
+			return null;
+		}
+
+		putSessionDefaults(request);
+		RequestPlan plan = getPlan(request);
+		List<String> tableList = plan.getTableList();
+		if (plan.hasFunction() || tableList.isEmpty()) {  // 远程函数可能查了别的表
+			return null;
+		}
+
+		StringBuilder sb = new StringBuilder(getRequestKey(request));
+		for (String table : tableList) {
+			sb.append('\n').append(table).append(':').append(getTableVersion(table));
+		}
+
+		// FNV-1a 64
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < sb.length(); i++) {
+			hash ^= sb.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return "\"" + Long.toHexString(hash) + "\"";
+	}
+
+
+	/**获取表的版本号，用于计算 ETag
+	 * @param table
+	 * @return
+	 */
+	protected long getTableVersion(@NotNull String table) {
+		return APIJSONSQLExecutor.getTableVersion(table);
+	}
+
+
+	/**正在进行的请求，等待的请求拿到的是结果的副本，避免互相修改
+	 */
+	protected static class Flight {
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private JSONObject response;
+		private String json;
+
+		public void complete(JSONObject response) {
+			this.response = response;
+			latch.countDown();
+		}
+
+		/**
+		 * @param deadline 截止时间，<= 0 则一直等
+		 * @return 第一个请求异常结束则为 null
+		 * @throws InterruptedException
+		 * @throws TimeoutException
+		 */
+		public JSONObject await(long deadline) throws InterruptedException, TimeoutException {
+			if (deadline <= 0) {
+				latch.await();
+			}
+			else if (latch.await(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS) == false) {
+				throw new TimeoutException("等待相同请求的结果超时！");
+			}
+
+			String s;
+			synchronized (this) {
+				if (json == null && response != null) {
+					json = JSON.toJSONString(response);
+				}
+				s = json;
+			}
+			return s == null ? null : apijson.JSON.parseObject(s);
+		}
+	}
+
+
+	/**
+	 * 最多缓存多少种结构的请求的 RequestPlan，<= 0 则不缓存，每次都重新分析
+	 */
+	public static int MAX_REQUEST_PLAN_COUNT = 1000;
+	/**
+	 * <请求结构, RequestPlan>，超过 MAX_REQUEST_PLAN_COUNT 则淘汰最早放入的
+	 */
+	protected static final BoundedCache<RequestShape, RequestPlan> REQUEST_PLAN_MAP;
+	static {
+		REQUEST_PLAN_MAP = new BoundedCache<RequestShape, RequestPlan>() {
+
+			@Override
+			public int getMaxSize() {
+				return MAX_REQUEST_PLAN_COUNT;
+			}
+		};
+	}
+
+	private JSONObject planRequest;
+	private RequestPlan requestPlan;
+
+	/**获取请求的执行计划，同一个请求只取一次，ETag、合并请求、并发查询等都用同一个
+	 * @param request
+	 * @return
+	 */
+	protected RequestPlan getPlan(@NotNull JSONObject request) {
+		if (request != planRequest || requestPlan == null) {
+			requestPlan = getRequestPlan(request);
+			planRequest = request;
+		}
+		return requestPlan;
+	}
+
+	/**获取请求的执行计划，结构相同的请求只分析一次
+	 * <br > 按结构取缓存，只遍历一次请求，比 RequestPlan 中分析执行计划的多次遍历快很多
+	 * @param request
+	 * @return
+	 */
+	public static RequestPlan getRequestPlan(@NotNull JSONObject request) {
+		if (MAX_REQUEST_PLAN_COUNT <= 0) {
+			return new RequestPlan(request);
+		}
+
+		RequestShape shape = new RequestShape();
+		shape.append(null, request);
+
+		RequestPlan plan = REQUEST_PLAN_MAP.get(shape);
+		if (plan == null) {
+			plan = new RequestPlan(request);
+			REQUEST_PLAN_MAP.put(shape, plan);
+		}
+		return plan;
+	}
+
+	/**请求的结构，值只保留类型，但 key@ 引用赋值的路径及 format, @explain, query 等影响执行计划的值会保留
+	 * <br > 保存规范化后的结构字符串，equals 比较字符串本身，哈希只用于 hashCode，不会因为碰撞拿到别的请求的执行计划
+	 */
+	protected static final class RequestShape {
+		private final StringBuilder builder = new StringBuilder();
+		private String shape;
+
+		private void append(char c) {
+			builder.append(c);
+			shape = null;
+		}
+		private void append(String s) {
+			builder.append(s.length()).append(':').append(s);  // 带上长度，避免 "ab" + "c" 和 "a" + "bc" 一样
+			shape = null;
+		}
+
+		void append(String key, Object value) {
+			if (value instanceof JSONObject) {
+				append('{');
+				for (Map.Entry<String, Object> entry : ((JSONObject) value).entrySet()) {
+					append(String.valueOf(entry.getKey()));
+					append(entry.getKey(), entry.getValue());
+				}
+				append('}');
+			}
+			else if (value instanceof JSONArray) {
+				append('[');
+				for (Object item : (JSONArray) value) {  // "id{}": [1, 2, 3] 这种值的数组和执行计划无关，不用每项都加上
+					if (item instanceof JSONObject || item instanceof JSONArray) {
+						append(null, item);
+					}
+				}
+				append(']');
+			}
+			else if (key != null && (key.endsWith("@") || FORMAT.equals(key) || JSONRequest.KEY_EXPLAIN.equals(key) || JSONRequest.KEY_QUERY.equals(key))) {
+				append('v');
+				append(String.valueOf(value));
+			}
+			else {
+				append(value == null ? 'n' : (value instanceof String ? 's' : (value instanceof Number ? 'd' : (value instanceof Boolean ? 'b' : 'o'))));
+			}
+		}
+
+		@Override
+		public String toString() {
+			if (shape == null) {
+				shape = builder.toString();
+			}
+			return shape;
+		}
+		@Override
+		public int hashCode() {
+			return toString().hashCode();
+		}
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof RequestShape == false) {
+				return false;
+			}
+			return toString().equals(obj.toString());
+		}
+	}
+
+	/**请求的执行计划，包括流式输出的数组及可以并发查询的顶层对象分组，只和请求的结构有关，和值无关
+	 * <br > SQL 由 APIJSONSQLConfig 按 SQL 的结构缓存模板，这里不重复缓存
+	 */
+	public static class RequestPlan {
+		private final String streamArrayKey;
+		private final String streamTable;
+		private final List<List<String>> parallelGroupList;
+		private final boolean visitorDependent;
+		private final boolean function;
+		private final List<String> tableList;
+
+		public RequestPlan(@NotNull JSONObject request) {
+			visitorDependent = APIJSONParser.isVisitorDependent(request);
+			function = APIJSONParser.hasFunction(request);
+			Set<String> tableSet = new TreeSet<>();
+			APIJSONParser.addTables(request, tableSet);
+			tableList = Collections.unmodifiableList(new ArrayList<>(tableSet));
+			streamArrayKey = APIJSONParser.getStreamArrayKey(request);
+			streamTable = streamArrayKey == null ? null : APIJSONParser.getStreamTable(streamArrayKey, request.getJSONObject(streamArrayKey));
+			List<List<String>> groupList = APIJSONParser.getParallelGroupList(request);
+			parallelGroupList = groupList == null ? null : Collections.unmodifiableList(groupList);
+		}
+
+		/**
+		 * @return 不能流式输出则为 null
+		 */
+		public String getStreamArrayKey() {
+			return streamArrayKey;
+		}
+		public String getStreamTable() {
+			return streamTable;
+		}
+		/**
+		 * @return 顶层对象少于 2 个则为 null，不能修改
+		 */
+		public List<List<String>> getParallelGroupList() {
+			return parallelGroupList;
+		}
+		/**
+		 * @return 结果是否和具体的用户有关，即有 @role 或 远程函数
+		 */
+		public boolean isVisitorDependent() {
+			return visitorDependent;
+		}
+		/**
+		 * @return 是否有远程函数
+		 */
+		public boolean hasFunction() {
+			return function;
+		}
+		/**
+		 * @return 请求中的所有表，包括子查询中的，按名称排序，不能修改
+		 */
+		public List<String> getTableList() {
+			return tableList;
+		}
+	}
+
+	/**
+	 * @param value
+	 * @return 是否有远程函数
+	 */
+	private static boolean hasFunction(Object value) {
+		if (value instanceof JSONObject) {
+			for (Map.Entry<String, Object> entry : ((JSONObject) value).entrySet()) {
+				String key = entry.getKey();
+				if ((key != null && key.endsWith("()")) || hasFunction(entry.getValue())) {
+					return true;
+				}
+			}
+		}
+		else if (value instanceof JSONArray) {
+			for (Object item : (JSONArray) value) {
+				if (hasFunction(item)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**把请求中的所有表加到 tableSet，"Table:alias" 只取 Table
+	 * @param value
+	 * @param tableSet
+	 */
+	private static void addTables(Object value, @NotNull Set<String> tableSet) {
+		if (value instanceof JSONObject) {
+			for (Map.Entry<String, Object> entry : ((JSONObject) value).entrySet()) {
+				String key = entry.getKey();
+				if (key != null && entry.getValue() instanceof JSONObject && JSONRequest.isArrayKey(key) == false) {
+					int index = key.indexOf(":");
+					String table = index < 0 ? key : key.substring(0, index);
+					if (JSONRequest.isTableKey(table)) {
+						tableSet.add(table);
+					}
+				}
+				addTables(entry.getValue(), tableSet);
+			}
+		}
+		else if (value instanceof JSONArray) {
+			for (Object item : (JSONArray) value) {
+				addTables(item, tableSet);
+			}
+		}
+	}
+
+	/**
+	 * @param value
+	 * @return 是否有 @role 或 远程函数，结果可能和具体的用户有关
+	 */
+	private static boolean isVisitorDependent(Object value) {
+		if (value instanceof JSONObject) {
+			for (Map.Entry<String, Object> entry : ((JSONObject) value).entrySet()) {
+				String key = entry.getKey();
+				if (JSONRequest.KEY_ROLE.equals(key) || (key != null && key.endsWith("()")) || isVisitorDependent(entry.getValue())) {
+					return true;
+				}
+			}
+		}
+		else if (value instanceof JSONArray) {
+			for (Object item : (JSONArray) value) {
+				if (isVisitorDependent(item)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+
+	private boolean parallel = true;
+	public boolean isParallel() {
+		return parallel;
+	}
+	/**是否并发查询互不依赖的顶层对象
+	 * @param parallel
+	 * @return
+	 */
+	public APIJSONParser setParallel(boolean parallel) {
+		this.parallel = parallel;
+		return this;
+	}
+
+	/**是否为 tag, version, format, @role, @database 等全局关键词
+	 * @param key
+	 * @return
+	 */
+	public static boolean isGlobalKey(String key) {
+		return key == null || key.startsWith("@") || JSONRequest.KEY_TAG.equals(key) || VERSION.equals(key) || FORMAT.equals(key);
+	}
+
+	/**根据 key@ 引用赋值把顶层对象分组，有直接或间接引用关系的在同一组，不同组之间互不依赖
+	 * @param request
+	 * @return [[key0, key2], [key1], ...]，组内及组间都按在 request 中的顺序排列；顶层对象少于 2 个则返回 null
+	 */
+	public static List<List<String>> getParallelGroupList(JSONObject request) {
+		List<String> keyList = new ArrayList<>();
+		for (String key : request.keySet()) {
+			if (isGlobalKey(key) == false) {
+				keyList.add(key);
+			}
+		}
+		int size = keyList.size();
+		if (size <= 1) {
+			return null;
+		}
+
+		Map<String, Integer> indexMap = new HashMap<>(size);
+		int[] roots = new int[size];
+		for (int i = 0; i < size; i++) {
+			indexMap.put(keyList.get(i), i);
+			roots[i] = i;
+		}
+
+		List<String> refList = new ArrayList<>();
+		for (int i = 0; i < size; i++) {
+			String key = keyList.get(i);
+			refList.clear();
+			addReferences(key, request.get(key), refList);
+
+			for (String ref : refList) {
+				// /User/id, User/id, []/Moment/userId 等，第一层如果是其它顶层对象，则依赖它
+				String path = ref.startsWith("/") ? ref.substring(1) : ref;
+				int index = path.indexOf("/");
+				Integer target = indexMap.get(index < 0 ? path : path.substring(0, index));
+				if (target != null) {
+					union(roots, i, target);
+				}
+			}
+		}
+
+		Map<Integer, List<String>> groupMap = new LinkedHashMap<>();
+		for (int i = 0; i < size; i++) {
+			int root = find(roots, i);
+			List<String> group = groupMap.get(root);
+			if (group == null) {
+				group = new ArrayList<>();
+				groupMap.put(root, group);
+			}
+			group.add(keyList.get(i));
+		}
+		return new ArrayList<>(groupMap.values());
+	}
+
+	private static void addReferences(String key, Object value, List<String> refList) {
+		if (value instanceof JSONObject) {
+			for (Map.Entry<String, Object> entry : ((JSONObject) value).entrySet()) {
+				addReferences(entry.getKey(), entry.getValue(), refList);
+			}
+		}
+		else if (value instanceof JSONArray) {
+			for (Object item : (JSONArray) value) {
+				addReferences(null, item, refList);
+			}
+		}
+		else if (value instanceof String && key != null && key.endsWith("@")) {
+			refList.add((String) value);
+		}
+	}
+
+	private static int find(int[] roots, int i) {
+		while (roots[i] != i) {
+			roots[i] = roots[roots[i]];
+			i = roots[i];
+		}
+		return i;
+	}
+	private static void union(int[] roots, int i, int j) {
+		int ri = find(roots, i);
+		int rj = find(roots, j);
+		if (ri != rj) {
+			roots[Math.max(ri, rj)] = Math.min(ri, rj);
+		}
+	}
+
+	/**并发查询互不依赖的各组顶层对象，每组由单独的 Parser 解析，最多 MAX_PARALLEL_COUNT 组同时查询，多出的组合并到前面的组中依次查询
+	 * @param request
+	 * @param groupList
+	 * @return 按 request 中 key 的顺序合并后的结果，有一组出错则返回这组的错误结果
+	 */
+	protected JSONObject parseParallelResponse(@NotNull JSONObject request, @NotNull List<List<String>> groupList) {
+		int count = Math.min(groupList.size(), MAX_PARALLEL_COUNT);
+
+		List<JSONObject> requestList = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			JSONObject req = new JSONObject(true);
+			for (Map.Entry<String, Object> entry : request.entrySet()) {
+				if (isGlobalKey(entry.getKey())) {
+					req.put(entry.getKey(), entry.getValue());
+				}
+			}
+			requestList.add(req);
+		}
+		for (int i = 0; i < groupList.size(); i++) {
+			JSONObject req = requestList.get(i % count);
+			for (String key : groupList.get(i)) {
+				req.put(key, request.get(key));
+			}
+		}
+
+		List<Future<JSONObject>> futureList = new ArrayList<>(count - 1);
+		for (int i = 1; i < count; i++) {
+			final JSONObject req = requestList.get(i);
+			futureList.add(PARALLEL_EXECUTOR.submit(new Callable<JSONObject>() {
+
+				@Override
+				public JSONObject call() throws Exception {
+					return createParallelParser().parseResponse(req);
+				}
+			}));
+		}
+
+		List<JSONObject> responseList = new ArrayList<>(count);
+		responseList.add(createParallelParser().parseResponse(requestList.get(0)));  // 当前线程也查一组，少占一个线程
+		for (Future<JSONObject> future : futureList) {
+			try {
+				responseList.add(future.get());
+			}
+			catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				responseList.add(newErrorResult(cause instanceof Exception ? (Exception) cause : e));
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				responseList.add(newErrorResult(e));
+			}
+		}
+
+		for (JSONObject res : responseList) {
+			if (res == null || JSONResponse.isSuccess(res) == false) {
+				return res;
+			}
+		}
+
+		JSONObject response = new JSONObject(true);
+		for (String key : request.keySet()) {
+			if (isGlobalKey(key)) {
+				continue;
+			}
+			for (JSONObject res : responseList) {
+				if (res.containsKey(key)) {
+					response.put(key, res.get(key));
+					break;
+				}
+			}
+		}
+		for (Map.Entry<String, Object> entry : responseList.get(0).entrySet()) {  // code, msg 等
+			if (request.containsKey(entry.getKey()) == false) {
+				response.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return response;
+	}
+
+	/**创建并发查询一组顶层对象的 Parser
+	 * @return
+	 */
+	protected Parser<Long> createParallelParser() {
+		Parser<Long> parser = createParser();
+		parser.setMethod(getMethod());
+		parser.setNeedVerifyLogin(isNeedVerifyLogin());
+		parser.setNeedVerifyRole(isNeedVerifyRole());
+		parser.setNeedVerifyContent(isNeedVerifyContent());
+		if (parser instanceof APIJSONParser) {
+			((APIJSONParser) parser).setSession(getSession()).setParallel(false).setCoalesce(false).setBulkhead(false).setDeadline(deadline);
+		}
+		parser.setVisitor(getVisitor());
+		return parser;
+	}
+
 	private FunctionParser functionParser;
 	public FunctionParser getFunctionParser() {
 		return functionParser;
@@ -132,6 +1319,8 @@ public class APIJSONParser extends AbstractParser<Long> {
 				((APIJSONFunctionParser) functionParser).setSession(getSession());
 			}
 		}
+		LazyJSON.parseValues(currentObject);  // 远程函数需要取 jsonb 字段里的值
+
 		functionParser.setKey(key);
 		functionParser.setParentPath(parentPath);
 		functionParser.setCurrentName(currentName);
@@ -141,6 +1330,47 @@ public class APIJSONParser extends AbstractParser<Long> {
 	}
 
 
+	@Override
+	public Object getValueByPath(String valuePath) {
+		parseLazyValues(valuePath);
+		return LazyJSON.parse(super.getValueByPath(valuePath));
+	}
+
+	/**把 valuePath 经过的 LazyJSON 替换为解析后的值，super.getValueByPath 逐层用 getJSONObject 取值，
+	 * 取不到 LazyJSON 里面的，例如 User/extra/name 中的 extra 是 jsonb 字段
+	 * @param valuePath
+	 */
+	protected void parseLazyValues(String valuePath) {
+		if (StringUtil.isEmpty(valuePath, true) || queryResultMap == null) {
+			return;
+		}
+
+		for (Map.Entry<String, Object> entry : queryResultMap.entrySet()) {  // 和 super.getValueByPath 一样取第一个匹配的
+			String path = entry.getKey();
+			if (valuePath.startsWith(path + "/") == false) {
+				continue;
+			}
+
+			Object parent = entry.getValue();
+			if (parent instanceof LazyJSON) {
+				parent = ((LazyJSON) parent).getValue();
+				entry.setValue(parent);
+			}
+
+			String[] keys = StringUtil.splitPath(valuePath.substring(path.length()));
+			for (int i = 0; keys != null && i < keys.length - 1 && parent instanceof JSONObject; i++) {
+				JSONObject object = (JSONObject) parent;
+				parent = object.get(keys[i]);
+				if (parent instanceof LazyJSON) {
+					parent = ((LazyJSON) parent).getValue();
+					object.put(keys[i], parent);
+				}
+			}
+			return;
+		}
+	}
+
+
 	@Override
 	public APIJSONObjectParser createObjectParser(JSONObject request, String parentPath, SQLConfig arrayConfig
 			, boolean isSubquery, boolean isTable, boolean isArrayMainTable) throws Exception {
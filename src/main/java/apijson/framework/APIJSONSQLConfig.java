@@ -19,15 +19,24 @@ import static apijson.framework.APIJSONConstant.PRIVACY_;
 import static apijson.framework.APIJSONConstant.USER_;
 import static apijson.framework.APIJSONConstant.USER_ID;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import com.alibaba.fastjson.JSONObject;
 import com.alibaba.fastjson.annotation.JSONField;
 
+import apijson.JSON;
+import apijson.NotNull;
 import apijson.RequestMethod;
+import apijson.StringUtil;
 import apijson.orm.AbstractSQLConfig;
 import apijson.orm.Join;
 import apijson.orm.SQLConfig;
+import apijson.orm.Subquery;
 
 
 /**SQL配置
@@ -39,6 +48,42 @@ public class APIJSONSQLConfig extends AbstractSQLConfig {
 
 	public static Callback SIMPLE_CALLBACK;
 	public static APIJSONCreator APIJSON_CREATOR;
+
+	/**
+	 * 分片数量，<= 1 则不分片
+	 */
+	public static int SHARD_COUNT = 1;
+	/**
+	 * 按 userIdKey 对应的值分片的表
+	 */
+	public static List<String> SHARD_TABLE_LIST;
+	/**
+	 * 分片函数
+	 */
+	public static ShardFunction SHARD_FUNCTION = ShardFunction.MOD;
+
+	/**
+	 * 最多缓存多少种结构的 SQL 模板，<= 0 则不缓存，每次都重新生成 SQL
+	 */
+	public static int MAX_SQL_TEMPLATE_COUNT = 1000;
+	/**
+	 * <SQL 结构, SQL 模板>，超过 MAX_SQL_TEMPLATE_COUNT 则淘汰最早放入的
+	 */
+	protected static final BoundedCache<List<Object>, SQLTemplate> SQL_TEMPLATE_MAP;
+	/**
+	 * 生成的 SQL 和模板不一致，这种结构不能用模板
+	 */
+	private static final SQLTemplate UNCACHEABLE = new SQLTemplate(null);
+	static {
+		SQL_TEMPLATE_MAP = new BoundedCache<List<Object>, SQLTemplate>() {
+
+			@Override
+			public int getMaxSize() {
+				return MAX_SQL_TEMPLATE_COUNT;
+			}
+		};
+	}
+
 	static {
 		DEFAULT_DATABASE = DATABASE_MYSQL;  //TODO 默认数据库类型，改成你自己的
 		DEFAULT_SCHEMA = "sys";  //TODO 默认模式名，改成你自己的，默认情况是 MySQL: sys, PostgreSQL: public, SQL Server: dbo, Oracle: 
@@ -49,6 +94,11 @@ public class APIJSONSQLConfig extends AbstractSQLConfig {
 		//		TABLE_KEY_MAP.put(User.class.getSimpleName(), "apijson_user");
 		//		TABLE_KEY_MAP.put(Privacy.class.getSimpleName(), "apijson_privacy");
 
+		SHARD_TABLE_LIST = new ArrayList<String>();
+		//		SHARD_TABLE_LIST.add(USER_);  //TODO 改成你自己的分片表
+		//		SHARD_TABLE_LIST.add("Moment");
+		//		SHARD_TABLE_LIST.add("Comment");
+
 		APIJSON_CREATOR = new APIJSONCreator();
 
 		SIMPLE_CALLBACK = new SimpleCallback() {
@@ -105,6 +155,15 @@ public class APIJSONSQLConfig extends AbstractSQLConfig {
 	@JSONField(serialize = false)  // 不在日志打印 账号/密码 等敏感信息，用了 UnitAuto 则一定要加
 	@Override
 	public String getDBUri() {
+		Integer shard = getShard();
+		return shard == null ? getPrimaryDBUri() : getShardDBUri(shard);
+	}
+
+	/**获取主库的 uri，分片时为所有分片默认的 uri
+	 * @return
+	 */
+	@JSONField(serialize = false)  // 不在日志打印 账号/密码 等敏感信息，用了 UnitAuto 则一定要加
+	public String getPrimaryDBUri() {
 		if (isMySQL()) {
 			return "jdbc:mysql://localhost:3306"; //TODO 改成你自己的，TiDB 可以当成 MySQL 使用，默认端口为 4000
 		}
@@ -120,6 +179,18 @@ public class APIJSONSQLConfig extends AbstractSQLConfig {
 		return null;
 	}
 
+	/**获取从库的 uri，GET, GETS, HEAD, HEADS 等非事务的读操作会按 APIJSONSQLExecutor.REPLICA_BALANCER 分配到其中一个从库，
+	 * 账号密码和主库 getDBUri 的一致
+	 * @return null 或 空 则读写都在主库
+	 */
+	@JSONField(serialize = false)  // 不在日志打印 账号/密码 等敏感信息，用了 UnitAuto 则一定要加
+	public List<String> getDBReplicaUriList() {
+		//		if (isMySQL()) {
+		//			return Arrays.asList("jdbc:mysql://localhost:3307", "jdbc:mysql://localhost:3308"); //TODO 改成你自己的
+		//		}
+		return null;
+	}
+
 	@JSONField(serialize = false)  // 不在日志打印 账号/密码 等敏感信息，用了 UnitAuto 则一定要加
 	@Override
 	public String getDBAccount() {
@@ -181,6 +252,64 @@ public class APIJSONSQLConfig extends AbstractSQLConfig {
 	//		return false;
 	//	}
 
+	private Integer shard;
+	/**当前所在的分片
+	 * @return null 则不分片
+	 */
+	public Integer getShard() {
+		return shard;
+	}
+	public APIJSONSQLConfig setShard(Integer shard) {
+		this.shard = shard;
+		sqlShapeValueList = null;
+		return this;
+	}
+
+	/**是否为分片表
+	 * @return
+	 */
+	public boolean isShardTable() {
+		return SHARD_COUNT > 1 && SHARD_TABLE_LIST != null && SHARD_TABLE_LIST.contains(getTable()) && isConfigTable() == false;
+	}
+
+	/**获取分片键的值，默认为 userIdKey 对应的值
+	 * @return 没有或者不是单个值则返回 null，需要查询或修改所有分片
+	 */
+	public Object getShardKeyValue() {
+		String key = getUserIdKey();
+		Object value;
+		if (getMethod() == RequestMethod.POST) {
+			List<String> column = getColumn();
+			List<List<Object>> values = getValues();
+			int index = column == null ? -1 : column.indexOf(key);
+			value = key.equals(getIdKey()) ? getId() : (index < 0 || values == null || values.size() != 1 ? null : values.get(0).get(index));
+		}
+		else {
+			value = getWhere(key, true);
+			if (value == null && key.equals(getIdKey())) {
+				value = getId();
+			}
+		}
+		return value instanceof Number || value instanceof String ? value : null;
+	}
+
+	/**获取分片所在数据库的 uri，默认所有分片都在同一个数据库，通过 getShardSchema 区分
+	 * @param shard
+	 * @return
+	 */
+	@JSONField(serialize = false)  // 不在日志打印 账号/密码 等敏感信息，用了 UnitAuto 则一定要加
+	public String getShardDBUri(int shard) {
+		return getPrimaryDBUri();
+	}
+	/**获取分片所在的 schema，默认为 schema_shard，例如 sys_0, sys_1
+	 * @param shard
+	 * @param schema 不分片时的 schema
+	 * @return
+	 */
+	public String getShardSchema(int shard, String schema) {
+		return schema + "_" + shard;
+	}
+
 	/**获取 APIJSON 配置表所在数据库模式 database，默认与业务表一块
 	 * @return
 	 */
@@ -207,7 +336,334 @@ public class APIJSONSQLConfig extends AbstractSQLConfig {
 	@Override
 	public String getSQLSchema() {
 		String sch = isConfigTable() ? getConfigSchema() : super.getSQLSchema();
-		return sch == null ? DEFAULT_SCHEMA : sch;
+		sch = sch == null ? DEFAULT_SCHEMA : sch;
+		return shard == null ? sch : getShardSchema(shard, sch);
+	}
+
+
+	/**同样结构的查询直接用缓存的 SQL 模板，只替换值，不再重新生成 SQL
+	 * <br > 模板只在预编译时生成，生成后会校验模板中的值和 getPreparedValueList 完全一致才缓存
+	 */
+	@Override
+	public String getSQL(boolean prepared) throws Exception {
+		if (MAX_SQL_TEMPLATE_COUNT <= 0) {
+			return super.getSQL(prepared);
+		}
+
+		if (sqlShapeValueList == null) {  // 同一个 config 多次 getSQL，例如 getSQL(false) 后 getStatement 中 getSQL(true)，只算一次
+			List<Object> valueList = new ArrayList<>();
+			sqlShape = getSQLShape(valueList);
+			sqlShapeValueList = valueList;
+		}
+		List<Object> shape = sqlShape;
+		List<Object> valueList = sqlShapeValueList;
+		if (shape == null) {
+			return super.getSQL(prepared);
+		}
+
+		SQLTemplate template = SQL_TEMPLATE_MAP.get(shape);
+		if (template == UNCACHEABLE) {
+			return super.getSQL(prepared);
+		}
+		if (template != null) {
+			setPrepared(prepared);
+			setPreparedValueList(prepared ? new ArrayList<>(valueList) : new ArrayList<>());
+			return template.render(this, valueList, prepared);
+		}
+
+		if (prepared == false) {  // 非预编译的 SQL 中值已经被替换了，没法生成模板
+			return super.getSQL(prepared);
+		}
+
+		String sql = super.getSQL(true);
+		if (sql == null || valueList.size() != new HashSet<>(valueList).size()) {
+			return sql;  // 值有重复则没法确定顺序是否一致，下次再生成
+		}
+
+		template = valueList.equals(getPreparedValueList()) ? SQLTemplate.valueOf(sql, valueList.size()) : null;
+		SQL_TEMPLATE_MAP.put(shape, template == null ? UNCACHEABLE : template);
+		return sql;
+	}
+
+	private List<Object> sqlShape;
+	/**
+	 * getSQLShape 放入的值，为 null 则结构可能变了，需要重新 getSQLShape
+	 */
+	private List<Object> sqlShapeValueList;
+
+	// 以下会改变 getSQLShape 结果的方法都要清空 sqlShapeValueList，直接修改 getWhere() 等返回的集合后要调用 setSQLShapeChanged <<<<<<<<<<<<<<<
+
+	/**结构或值改变后让下次 getSQL 重新 getSQLShape
+	 * @return
+	 */
+	public APIJSONSQLConfig setSQLShapeChanged() {
+		sqlShapeValueList = null;
+		return this;
+	}
+
+	@Override
+	public AbstractSQLConfig setMethod(RequestMethod method) {
+		sqlShapeValueList = null;
+		return super.setMethod(method);
+	}
+	@Override
+	public AbstractSQLConfig setMain(boolean main) {
+		sqlShapeValueList = null;
+		return super.setMain(main);
+	}
+	@Override
+	public AbstractSQLConfig setRole(String role) {
+		sqlShapeValueList = null;
+		return super.setRole(role);
+	}
+	@Override
+	public SQLConfig setDistinct(boolean distinct) {
+		sqlShapeValueList = null;
+		return super.setDistinct(distinct);
+	}
+	@Override
+	public SQLConfig setDatabase(String database) {
+		sqlShapeValueList = null;
+		return super.setDatabase(database);
+	}
+	@Override
+	public AbstractSQLConfig setSchema(String schema) {
+		sqlShapeValueList = null;
+		return super.setSchema(schema);
+	}
+	@Override
+	public SQLConfig setDatasource(String datasource) {
+		sqlShapeValueList = null;
+		return super.setDatasource(datasource);
+	}
+	@Override
+	public AbstractSQLConfig setTable(String table) {
+		sqlShapeValueList = null;
+		return super.setTable(table);
+	}
+	@Override
+	public AbstractSQLConfig setAlias(String alias) {
+		sqlShapeValueList = null;
+		return super.setAlias(alias);
+	}
+	@Override
+	public SQLConfig setProcedure(String procedure) {
+		sqlShapeValueList = null;
+		return super.setProcedure(procedure);
+	}
+	@Override
+	public AbstractSQLConfig setGroup(String group) {
+		sqlShapeValueList = null;
+		return super.setGroup(group);
+	}
+	@Override
+	public AbstractSQLConfig setHaving(String having) {
+		sqlShapeValueList = null;
+		return super.setHaving(having);
+	}
+	@Override
+	public AbstractSQLConfig setOrder(String order) {
+		sqlShapeValueList = null;
+		return super.setOrder(order);
+	}
+	@Override
+	public SQLConfig setRaw(List<String> raw) {
+		sqlShapeValueList = null;
+		return super.setRaw(raw);
+	}
+	@Override
+	public AbstractSQLConfig setFrom(Subquery from) {
+		sqlShapeValueList = null;
+		return super.setFrom(from);
+	}
+	@Override
+	public AbstractSQLConfig setColumn(List<String> column) {
+		sqlShapeValueList = null;
+		return super.setColumn(column);
+	}
+	@Override
+	public AbstractSQLConfig setCount(int count) {
+		sqlShapeValueList = null;
+		return super.setCount(count);
+	}
+	@Override
+	public AbstractSQLConfig setPage(int page) {
+		sqlShapeValueList = null;
+		return super.setPage(page);
+	}
+	@Override
+	public AbstractSQLConfig setPosition(int position) {
+		sqlShapeValueList = null;
+		return super.setPosition(position);
+	}
+	@Override
+	public AbstractSQLConfig setQuery(int query) {
+		sqlShapeValueList = null;
+		return super.setQuery(query);
+	}
+	@Override
+	public AbstractSQLConfig setType(int type) {
+		sqlShapeValueList = null;
+		return super.setType(type);
+	}
+	@Override
+	public AbstractSQLConfig setCache(int cache) {
+		sqlShapeValueList = null;
+		return super.setCache(cache);
+	}
+	@Override
+	public AbstractSQLConfig setExplain(boolean explain) {
+		sqlShapeValueList = null;
+		return super.setExplain(explain);
+	}
+	@Override
+	public SQLConfig setJoinList(List<Join> joinList) {
+		sqlShapeValueList = null;
+		return super.setJoinList(joinList);
+	}
+	@Override
+	public AbstractSQLConfig setTest(boolean test) {
+		sqlShapeValueList = null;
+		return super.setTest(test);
+	}
+	@Override
+	public AbstractSQLConfig setKeyPrefix(boolean keyPrefix) {
+		sqlShapeValueList = null;
+		return super.setKeyPrefix(keyPrefix);
+	}
+	@Override
+	public AbstractSQLConfig setWhere(Map<String, Object> where) {
+		sqlShapeValueList = null;
+		return super.setWhere(where);
+	}
+	@Override
+	public AbstractSQLConfig setCombine(Map<String, List<String>> combine) {
+		sqlShapeValueList = null;
+		return super.setCombine(combine);
+	}
+	@Override
+	public AbstractSQLConfig putWhere(String key, Object value, boolean prior) {
+		sqlShapeValueList = null;
+		return super.putWhere(key, value, prior);
+	}
+
+	// 以上会改变 getSQLShape 结果的方法都要清空 sqlShapeValueList，直接修改 getWhere() 等返回的集合后要调用 setSQLShapeChanged >>>>>>>>>>>>>>>
+
+	/**获取决定 SQL 内容的所有结构，值不同但结构相同的 SQL 只有 ? 对应的值不同
+	 * @param valueList 按 getWhereString 的顺序放入 ? 对应的值
+	 * @return 不支持模板则返回 null，只支持 GET, GETS, HEAD, HEADS，没有 JOIN, 子查询，条件只能是 key, key!, key>, key<, key>=, key<=, key{}, key!{}
+	 */
+	protected List<Object> getSQLShape(@NotNull List<Object> valueList) {
+		if (RequestMethod.isQueryMethod(getMethod()) == false || isTest() || hasJoin() || getFrom() != null
+				|| StringUtil.isEmpty(getProcedure(), true) == false) {
+			return null;
+		}
+
+		List<Object> whereShape = new ArrayList<>();
+		Map<String, List<String>> combine = getCombine();
+		if (combine != null) {
+			Map<String, Object> where = getWhere();
+			List<String> raw = getRaw();
+			for (Map.Entry<String, List<String>> entry : combine.entrySet()) {
+				List<String> keyList = entry.getValue();
+				if (keyList == null || keyList.isEmpty()) {
+					continue;
+				}
+
+				whereShape.add(entry.getKey());
+				for (String key : keyList) {
+					Object value = where == null ? null : where.get(key);
+					if (key == null || (raw != null && raw.contains(key))) {
+						return null;
+					}
+
+					if (key.endsWith("{}")) {
+						String name = key.substring(0, key.length() - (key.endsWith("!{}") ? 3 : 2));
+						if (StringUtil.isName(name) == false || value instanceof Collection == false) {
+							return null;
+						}
+						for (Object item : (Collection<?>) value) {
+							if (JSON.isBooleanOrNumberOrString(item) == false) {
+								return null;
+							}
+							valueList.add(item);
+						}
+						whereShape.add(key);
+						whereShape.add(((Collection<?>) value).size());
+						continue;
+					}
+
+					String name = key;
+					for (String op : SQL_TEMPLATE_OPERATORS) {
+						if (key.endsWith(op)) {
+							name = key.substring(0, key.length() - op.length());
+							break;
+						}
+					}
+					if (StringUtil.isName(name) == false || (value != null && JSON.isBooleanOrNumberOrString(value) == false)) {
+						return null;
+					}
+					if (value != null) {
+						valueList.add(value);
+					}
+					whereShape.add(key);
+					whereShape.add(value == null);  // null 会生成 IS NULL
+				}
+			}
+		}
+
+		List<String> column = getColumn();
+		return Arrays.asList(getMethod(), getSQLDatabase(), getSQLSchema(), getDatasource(), getTable(), getAlias(), getRole()
+				, column == null ? null : new ArrayList<>(column), isDistinct(), isKeyPrefix(), isExplain(), isMain(), getCache()
+				, getGroup(), getHaving(), getOrder(), getCount(), getPage(), getPosition(), getQuery(), getType(), whereShape);
+	}
+
+	private static final String[] SQL_TEMPLATE_OPERATORS = { ">=", "<=", ">", "<", "!" };
+
+
+	/**SQL 模板，按 ? 把 SQL 分成多段，生成 SQL 时在段之间放入 ? 或者值
+	 */
+	protected static class SQLTemplate {
+		private final String[] parts;
+
+		SQLTemplate(String[] parts) {
+			this.parts = parts;
+		}
+
+		/**
+		 * @param sql
+		 * @param valueCount
+		 * @return SQL 中 ? 的数量和 valueCount 不一致(例如字符串常量中有 ?)则返回 null
+		 */
+		static SQLTemplate valueOf(@NotNull String sql, int valueCount) {
+			String[] parts = new String[valueCount + 1];
+			int start = 0;
+			for (int i = 0; i < valueCount; i++) {
+				int index = sql.indexOf('?', start);
+				if (index < 0) {
+					return null;
+				}
+				parts[i] = sql.substring(start, index);
+				start = index + 1;
+			}
+			if (sql.indexOf('?', start) >= 0) {
+				return null;
+			}
+			parts[valueCount] = sql.substring(start);
+			return new SQLTemplate(parts);
+		}
+
+		String render(@NotNull AbstractSQLConfig config, @NotNull List<Object> valueList, boolean prepared) {
+			if (parts.length == 1) {
+				return parts[0];
+			}
+
+			StringBuilder sb = new StringBuilder(parts[0]);
+			for (int i = 1; i < parts.length; i++) {
+				sb.append(prepared ? "?" : config.getSQLValue(valueList.get(i - 1))).append(parts[i]);
+			}
+			return sb.toString();
+		}
 	}
 
 
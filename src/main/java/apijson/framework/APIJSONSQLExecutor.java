@@ -14,21 +14,56 @@ limitations under the License.*/
 
 package apijson.framework;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.rmi.ServerException;
+import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.postgresql.util.PGobject;
 
 import com.alibaba.fastjson.JSONObject;
 
 import apijson.JSON;
+import apijson.JSONResponse;
 import apijson.Log;
 import apijson.NotNull;
+import apijson.RequestMethod;
+import apijson.StringUtil;
+import apijson.orm.AbstractParser;
 import apijson.orm.AbstractSQLExecutor;
+import apijson.orm.Join;
 import apijson.orm.SQLConfig;
+import apijson.orm.Subquery;
 
 
 /**executor for query(read) or update(write) MySQL database
@@ -37,6 +72,138 @@ import apijson.orm.SQLConfig;
 public class APIJSONSQLExecutor extends AbstractSQLExecutor {
 	public static final String TAG = "APIJSONSQLExecutor";
 
+	/**
+	 * 数据库连接池，所有 APIJSONSQLExecutor 共用，设置为 null 则不使用连接池，每次都新建连接
+	 */
+	public static ConnectionPool CONNECTION_POOL;
+	static {
+		CONNECTION_POOL = new ConnectionPool();
+	}
+
+	/**
+	 * 跨请求共享的查询结果缓存，只缓存 GET, GETS 的结果，所有 APIJSONSQLExecutor 共用，默认为 null 不缓存
+	 */
+	public static ResultCache RESULT_CACHE;
+
+	/**
+	 * <table, version>，表每次被修改后版本号 +1，用于计算 GET 结果的 ETag 及让 RESULT_CACHE 中的结果失效
+	 * <br > 只在当前进程内有效，多个实例部署时可以重写 APIJSONParser.getTableVersion 和 onTableUpdated 来用共享的版本号
+	 */
+	protected static final ConcurrentHashMap<String, AtomicLong> TABLE_VERSION_MAP = new ConcurrentHashMap<>();
+	/**
+	 * 启动时间，作为所有表版本号的初始值，避免重启后的版本号和重启前的相同
+	 */
+	public static final long TABLE_VERSION_BASE = System.currentTimeMillis();
+
+	/**获取表的版本号
+	 * @param table
+	 * @return
+	 */
+	public static long getTableVersion(@NotNull String table) {
+		AtomicLong version = TABLE_VERSION_MAP.get(table);
+		return version == null ? TABLE_VERSION_BASE : version.get();
+	}
+	/**表的版本号 +1
+	 * @param table
+	 */
+	public static void incrementTableVersion(@NotNull String table) {
+		AtomicLong version = TABLE_VERSION_MAP.get(table);
+		if (version == null) {
+			version = new AtomicLong(TABLE_VERSION_BASE);
+			AtomicLong old = TABLE_VERSION_MAP.putIfAbsent(table, version);
+			if (old != null) {
+				version = old;
+			}
+		}
+		version.incrementAndGet();
+	}
+
+	/**
+	 * PostgreSQL 的 json, jsonb 字段是否延迟解析，为 true 则查到的值为 LazyJSON，序列化时直接输出原始 JSON 字符串
+	 */
+	public static boolean LAZY_JSON = true;
+
+	/**
+	 * 批量新增/修改 Table[]:[{}] 时每次 executeBatch 最多的行数，<= 1 则不用 JDBC 批处理，每行单独 executeUpdate
+	 */
+	public static int MAX_BATCH_SIZE = 100;
+
+	/**
+	 * 大数组查询用游标分批从数据库取数据时，每批的行数，<= 0 则不用游标，驱动会一次性把所有结果读到内存中
+	 */
+	public static int CURSOR_FETCH_SIZE = 1000;
+	/**
+	 * 数组 count 至少为多少时用游标分批取数据，流式输出时总是用游标
+	 */
+	public static int CURSOR_MIN_COUNT = 1000;
+
+	/**
+	 * 查询结果的每一行是否用 CompactRow 保存，所有行共用列名，比每行一个 LinkedHashMap 省内存
+	 */
+	public static boolean COMPACT_ROW = true;
+
+	/**
+	 * 最多缓存多少条 SQL 的 RowDecoder，<= 0 则不跨查询缓存，每次查询都从 ResultSetMetaData 重新生成
+	 */
+	public static int MAX_ROW_DECODER_COUNT = 1000;
+	/**
+	 * <datasource|database|sql, RowDecoder>，超过 MAX_ROW_DECODER_COUNT 则淘汰最早放入的
+	 */
+	protected static final BoundedCache<String, RowDecoder> ROW_DECODER_MAP;
+	static {
+		ROW_DECODER_MAP = new BoundedCache<String, RowDecoder>() {
+
+			@Override
+			public int getMaxSize() {
+				return MAX_ROW_DECODER_COUNT;
+			}
+		};
+	}
+
+	/**
+	 * @ APP JOIN 查询副表时 IN 中最多的值数量，超过则分成多条 SQL，实际数量还受数据库参数数量限制，见 getMaxInCount
+	 */
+	public static int APP_JOIN_MAX_IN_COUNT = 5000;
+	/**
+	 * @ APP JOIN 分成多条 SQL 时最多同时查询的数量，每条用一个单独的连接，<= 1 则不并发
+	 */
+	public static int APP_JOIN_PARALLEL_COUNT = 4;
+	/**
+	 * @ APP JOIN 并发查询的线程池，队列满了则由请求线程自己执行，设置为 null 则不并发
+	 */
+	public static ThreadPoolExecutor APP_JOIN_EXECUTOR;
+	static {
+		int size = Math.max(4, 2*Runtime.getRuntime().availableProcessors());
+		APP_JOIN_EXECUTOR = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(256), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, TAG + "-join-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+		APP_JOIN_EXECUTOR.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * 到了请求的截止时间还没执行完的 SQL 由这个线程取消，设置为 null 则只用 Statement.setQueryTimeout
+	 */
+	public static ScheduledThreadPoolExecutor TIMEOUT_SCHEDULER;
+	static {
+		TIMEOUT_SCHEDULER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, TAG + "-timeout");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		TIMEOUT_SCHEDULER.setRemoveOnCancelPolicy(true);
+	}
+
 	static {
 		try { //加载驱动程序
 			Log.d(TAG, "尝试加载 MySQL 8 驱动 <<<<<<<<<<<<<<<<<<<<< ");
@@ -71,6 +238,1519 @@ public class APIJSONSQLExecutor extends AbstractSQLExecutor {
 	}
 
 
+	/**
+	 * 从库负载均衡策略
+	 */
+	public static ReplicaBalancer REPLICA_BALANCER = ReplicaBalancer.ROUND_ROBIN;
+	/**
+	 * 从库连接失败后多久内不再使用，单位 ms
+	 */
+	public static long REPLICA_RETRY_INTERVAL = 10*1000;
+	/**
+	 * <uri, 连接失败的时间>
+	 */
+	protected static final Map<String, Long> REPLICA_FAIL_TIME_MAP = new ConcurrentHashMap<>();
+
+	private boolean primary;
+	public boolean isPrimary() {
+		return primary;
+	}
+	/**设置后读操作也在主库，用于写操作后短时间内读到自己写入的数据
+	 * @param primary
+	 * @return
+	 */
+	public APIJSONSQLExecutor setPrimary(boolean primary) {
+		this.primary = primary;
+		return this;
+	}
+
+	/**获取执行读操作的从库 uri
+	 * @param config
+	 * @return null 则在主库执行，写操作、事务中的读操作及修改过数据的请求都在主库
+	 */
+	protected String getReplicaUri(@NotNull SQLConfig config) {
+		if (primary || config instanceof APIJSONSQLConfig == false || ((APIJSONSQLConfig) config).getShard() != null  // 分片的从库需要自己重写这个方法
+				|| RequestMethod.isQueryMethod(config.getMethod()) == false
+				|| getTransactionIsolation() != Connection.TRANSACTION_NONE || (updatedTableSet != null && updatedTableSet.isEmpty() == false)) {
+			return null;
+		}
+
+		List<String> uriList = ((APIJSONSQLConfig) config).getDBReplicaUriList();
+		if (uriList == null || uriList.isEmpty()) {
+			return null;
+		}
+
+		List<String> availableList = uriList;
+		if (REPLICA_FAIL_TIME_MAP.isEmpty() == false) {
+			long now = System.currentTimeMillis();
+			availableList = new ArrayList<>(uriList.size());
+			for (String uri : uriList) {
+				Long failTime = REPLICA_FAIL_TIME_MAP.get(uri);
+				if (failTime == null || now - failTime > REPLICA_RETRY_INTERVAL) {
+					availableList.add(uri);
+				}
+			}
+			if (availableList.isEmpty()) {
+				return null;
+			}
+		}
+
+		ReplicaBalancer balancer = REPLICA_BALANCER;
+		return balancer == null ? null : balancer.select(config, availableList);
+	}
+
+	@Override
+	public Connection getConnection(@NotNull SQLConfig config) throws Exception {
+		String replicaUri = getReplicaUri(config);
+		if (replicaUri != null) {
+			String connectionKey = config.getDatasource() + "-" + config.getDatabase() + "-replica";
+			Connection replica = connectionMap.get(connectionKey);
+			try {
+				if (replica == null || replica.isClosed()) {
+					ConnectionPool pool = CONNECTION_POOL;
+					if (pool != null) {
+						pool.release(replica);
+					}
+
+					replica = pool != null ? pool.getConnection(config.getDatabase(), replicaUri, config.getDBAccount(), config.getDBPassword())
+							: DriverManager.getConnection(replicaUri, config.getDBAccount(), config.getDBPassword());
+					connectionMap.put(connectionKey, replica);
+				}
+
+				connection = replica;
+				return connection;
+			}
+			catch (SQLException e) {  // 从库不可用就用主库
+				Log.w(TAG, "getConnection  replicaUri = " + replicaUri + " catch (SQLException e) >> 改用主库; \n" + e.getMessage());
+				REPLICA_FAIL_TIME_MAP.put(replicaUri, System.currentTimeMillis());
+				connectionMap.remove(connectionKey);
+			}
+		}
+
+		ConnectionPool pool = CONNECTION_POOL;
+		Integer shard = config instanceof APIJSONSQLConfig ? ((APIJSONSQLConfig) config).getShard() : null;
+		if (pool == null && shard == null) {
+			return super.getConnection(config);
+		}
+
+		String connectionKey = config.getDatasource() + "-" + config.getDatabase() + (shard == null ? "" : "-shard" + shard);
+		connection = connectionMap.get(connectionKey);
+		if (connection == null || connection.isClosed()) {
+			if (pool != null) {
+				pool.release(connection);  // 已关闭的也要归还，释放占用的名额
+			}
+
+			connection = pool != null ? pool.getConnection(config) : DriverManager.getConnection(config.getDBUri(), config.getDBAccount(), config.getDBPassword());
+			connectionMap.put(connectionKey, connection);
+		}
+
+		int ti = getTransactionIsolation();
+		if (ti != Connection.TRANSACTION_NONE) { //java.sql.SQLException: Transaction isolation level NONE not supported by MySQL
+			begin(ti);
+		}
+
+		return connection;
+	}
+
+	/**
+	 * 没有被缓存的 PreparedStatement，连接池中的连接不会被关闭，所以要在 close 时自己关闭
+	 */
+	protected List<Statement> uncachedStatementList;
+
+	@Override
+	public PreparedStatement getStatement(@NotNull SQLConfig config) throws Exception {
+		String sql = config.getSQL(config.isPrepared());
+		statementSQL = sql;
+		return setArguments(config, prepareStatement(config, sql));
+	}
+
+	/**设置所有预编译参数
+	 * @param config
+	 * @param statement
+	 * @return
+	 * @throws SQLException
+	 */
+	protected PreparedStatement setArguments(@NotNull SQLConfig config, @NotNull PreparedStatement statement) throws SQLException {
+		List<Object> valueList = config.isPrepared() ? config.getPreparedValueList() : null;
+		if (valueList != null && valueList.isEmpty() == false) {
+			for (int i = 0; i < valueList.size(); i++) {
+				statement = setArgument(config, statement, i, valueList.get(i));
+			}
+		}
+		return statement;
+	}
+
+	/**创建 PreparedStatement，预编译的 SQL 优先复用当前连接缓存的 PreparedStatement
+	 * @param config
+	 * @param sql
+	 * @return
+	 * @throws Exception
+	 */
+	protected PreparedStatement prepareStatement(@NotNull SQLConfig config, @NotNull String sql) throws Exception {
+		boolean returnGeneratedKeys = config.getMethod() == RequestMethod.POST && config.getId() == null; //自增id
+		Connection connection = getConnection(config);
+
+		ConnectionPool pool = CONNECTION_POOL;
+		StatementCache cache = pool == null || config.isPrepared() == false ? null : pool.getStatementCache(connection);  // 值拼接在 SQL 中的基本不会重复，缓存了也命中不了
+		if (cache != null) {
+			return onStatementPrepared(cache.prepareStatement(connection, sql, returnGeneratedKeys), true);
+		}
+
+		PreparedStatement statement = returnGeneratedKeys
+				? connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) : connection.prepareStatement(sql);
+		if (pool != null) {
+			addUncachedStatement(statement);
+		}
+		return onStatementPrepared(statement, false);
+	}
+
+	/**设置超时时间等，缓存的 PreparedStatement 会保留上次请求的设置，所以要重置
+	 * @param statement
+	 * @param cached
+	 * @return
+	 * @throws Exception
+	 */
+	protected PreparedStatement onStatementPrepared(@NotNull PreparedStatement statement, boolean cached) throws Exception {
+		if (cached) {
+			statement.setFetchSize(0);
+		}
+		if (deadline > 0) {
+			statement.setQueryTimeout(getQueryTimeout());
+			synchronized (this) {
+				runningStatement = statement;
+			}
+		}
+		else if (cached) {
+			statement.setQueryTimeout(0);
+		}
+		return statement;
+	}
+
+
+	/**
+	 * 为了用游标而关闭了自动提交的连接，查询结束后要恢复
+	 */
+	private Connection cursorConnection;
+
+	/**是否用游标分批从数据库取数据，只有 PostgreSQL 和 MySQL 支持
+	 * @param config
+	 * @return
+	 */
+	protected boolean isCursor(@NotNull SQLConfig config) {
+		return CURSOR_FETCH_SIZE > 0 && config.isExplain() == false && RequestMethod.isGetMethod(config.getMethod(), true)
+				&& (config.isPostgreSQL() || config.isMySQL())
+				&& (isStream(config) || (config.getCount() >= CURSOR_MIN_COUNT && CURSOR_MIN_COUNT > 0));
+	}
+
+	@Override
+	public ResultSet executeQuery(@NotNull SQLConfig config) throws Exception {
+		PreparedStatement statement = getStatement(config);
+		String sql = statementSQL;
+		if (isCursor(config) == false) {
+			return bindRowDecoder(config, sql, statement.executeQuery());
+		}
+
+		if (config.isPostgreSQL()) {  // PostgreSQL 只有在事务中才会用游标，否则 fetchSize 无效
+			Connection connection = statement.getConnection();
+			if (connection.getAutoCommit()) {
+				connection.setAutoCommit(false);
+				cursorConnection = connection;
+			}
+			statement.setFetchSize(CURSOR_FETCH_SIZE);
+		}
+		else {  // MySQL 只有 Integer.MIN_VALUE 才会一行一行地读，否则要在 url 中加 useCursorFetch=true
+			statement.setFetchSize(Integer.MIN_VALUE);
+		}
+		return bindRowDecoder(config, sql, statement.executeQuery());
+	}
+
+	/**恢复为了用游标而关闭的自动提交
+	 */
+	protected void restoreAutoCommit() {
+		Connection connection = cursorConnection;
+		if (connection == null) {
+			return;
+		}
+
+		cursorConnection = null;
+		try {
+			connection.setAutoCommit(true);  // 只有查询，会直接结束事务
+		}
+		catch (SQLException e) {
+			Log.w(TAG, "restoreAutoCommit  connection.setAutoCommit(true) catch (SQLException e) >> " + e.getMessage());
+		}
+	}
+
+	protected void addUncachedStatement(@NotNull Statement statement) {
+		if (uncachedStatementList == null) {
+			uncachedStatementList = new ArrayList<>();
+		}
+		uncachedStatementList.add(statement);
+	}
+
+	/**归还连接到连接池，而不是关闭连接
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {  // 连接归还后就可能被其它请求使用，不能再取消
+			if (timeoutFuture != null) {
+				timeoutFuture.cancel(false);
+				timeoutFuture = null;
+			}
+			runningStatement = null;
+		}
+
+		if (batchConfigList != null) {
+			cancelBatch();
+		}
+		if (uncachedStatementList != null) {
+			for (Statement statement : uncachedStatementList) {
+				try {
+					statement.close();
+				}
+				catch (SQLException e) {
+					e.printStackTrace();
+				}
+			}
+			uncachedStatementList = null;
+		}
+
+		ConnectionPool pool = CONNECTION_POOL;
+		if (pool != null && connectionMap != null) {
+			Iterator<Connection> iterator = connectionMap.values().iterator();
+			while (iterator.hasNext()) {
+				if (pool.release(iterator.next())) {
+					iterator.remove();
+				}
+			}
+		}
+
+		rowDecoderBindingMap.clear();
+		shardSQLCount = 0;
+		super.close();
+	}
+
+
+	/**多个请求共用同一个 APIJSONSQLExecutor 时，在下一个请求前清空当前请求的查询结果缓存、超时状态、
+	 * 事务隔离级别、强制走主库及流式输出，保留连接。
+	 * <br > 否则写请求之后的 GET 会沿用 TRANSACTION_REPEATABLE_READ 和没有恢复的 autoCommit = false，
+	 * 在一直不提交的事务中查主库，也不走从库和 APP JOIN 的并行查询
+	 */
+	public synchronized void reset() {
+		setTransactionIsolation(Connection.TRANSACTION_NONE);
+		if (connectionMap != null) {
+			for (Connection c : connectionMap.values()) {
+				try {
+					if (c != null && c.isClosed() == false && c.getAutoCommit() == false) {
+						c.setAutoCommit(true);  // 上个请求的事务已经 commit 或 rollback 了
+					}
+				}
+				catch (SQLException e) {
+					Log.w(TAG, "reset  c.setAutoCommit(true) catch (SQLException e) >> " + e.getMessage());
+				}
+			}
+		}
+		cursorConnection = null;
+		primary = false;
+		streamWriter = null;
+
+		if (cacheMap != null) {
+			cacheMap.clear();
+		}
+		if (timeoutFuture != null) {
+			timeoutFuture.cancel(false);
+			timeoutFuture = null;
+		}
+		deadline = 0;
+		timedOut = false;
+	}
+
+
+	private long deadline;
+	private Statement runningStatement;
+	private Future<?> timeoutFuture;
+	private volatile boolean timedOut;
+
+	public long getDeadline() {
+		return deadline;
+	}
+	/**设置请求的截止时间，之后每条 SQL 的 setQueryTimeout 为剩余的时间，到时间还没执行完的 SQL 会被取消
+	 * @param deadline System.currentTimeMillis() 的时间点，<= 0 则不限制
+	 * @return
+	 */
+	public synchronized APIJSONSQLExecutor setDeadline(long deadline) {
+		this.deadline = deadline;
+		if (timeoutFuture != null) {
+			timeoutFuture.cancel(false);
+			timeoutFuture = null;
+		}
+
+		ScheduledThreadPoolExecutor scheduler = TIMEOUT_SCHEDULER;
+		if (deadline > 0 && scheduler != null) {
+			timeoutFuture = scheduler.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					onTimeout();
+				}
+			}, Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		}
+		return this;
+	}
+
+	/**到了截止时间，取消正在执行的 SQL
+	 */
+	protected synchronized void onTimeout() {
+		timedOut = true;
+		timeoutFuture = null;
+		if (runningStatement != null) {
+			try {
+				runningStatement.cancel();
+			}
+			catch (SQLException e) {
+				Log.w(TAG, "onTimeout  runningStatement.cancel() catch (SQLException e) >> " + e.getMessage());
+			}
+		}
+	}
+
+	/**检查是否已超时
+	 * @throws TimeoutException
+	 */
+	public void checkDeadline() throws TimeoutException {
+		if (deadline > 0 && (timedOut || System.currentTimeMillis() >= deadline)) {
+			throw new TimeoutException("请求超时，已超过截止时间 " + deadline + " ！");
+		}
+	}
+
+	/**获取 SQL 的超时时间
+	 * @return 剩余的时间，单位 s，至少为 1
+	 * @throws TimeoutException 已超时
+	 */
+	protected int getQueryTimeout() throws TimeoutException {
+		checkDeadline();
+		long remaining = deadline - System.currentTimeMillis();
+		return (int) Math.min(Integer.MAX_VALUE, Math.max(1, (remaining + 999)/1000));
+	}
+
+	/**超时导致的 SQLException 转为 TimeoutException，其它的原样返回
+	 * @param e
+	 * @return
+	 */
+	protected Exception onSQLException(@NotNull SQLException e) {
+		if (deadline > 0 && (e instanceof SQLTimeoutException || timedOut || System.currentTimeMillis() >= deadline)) {
+			TimeoutException te = new TimeoutException("请求超时，SQL 已被取消！");
+			te.initCause(e);
+			return te;
+		}
+		return e;
+	}
+
+
+	/**
+	 * 当前事务中修改过的表，在提交前不使用共享的查询结果缓存，提交后再让缓存失效一次
+	 */
+	protected Set<String> updatedTableSet;
+
+	@Override
+	public JSONObject execute(@NotNull SQLConfig config, boolean unknowType) throws Exception {
+		checkDeadline();
+		try {
+			return executeWithCache(config, unknowType);
+		}
+		catch (SQLException e) {
+			throw onSQLException(e);
+		}
+		finally {
+			unbindClosedRowDecoders();
+			restoreAutoCommit();
+		}
+	}
+
+	/**分片路由及使用共享的查询结果缓存
+	 * @param config
+	 * @param unknowType
+	 * @return
+	 * @throws Exception
+	 */
+	protected JSONObject executeWithCache(@NotNull SQLConfig config, boolean unknowType) throws Exception {
+		checkShardJoin(config);
+
+		if (config instanceof APIJSONSQLConfig) {
+			APIJSONSQLConfig shardConfig = (APIJSONSQLConfig) config;
+			if (shardConfig.getShard() == null && shardConfig.isShardTable()) {
+				return executeShard(shardConfig, unknowType);
+			}
+		}
+
+		RequestMethod method = config.getMethod();
+		if (batchStatement != null && (unknowType || (method != RequestMethod.POST && method != RequestMethod.PUT))) {  // 其它 SQL 可能依赖批处理的结果
+			flushBatch();
+		}
+
+		ResultCache cache = RESULT_CACHE;
+		if (cache == null || unknowType || config.isExplain() || (method != RequestMethod.GET && method != RequestMethod.GETS) || isStream(config)
+				|| (updatedTableSet != null && updatedTableSet.isEmpty() == false) || isResultCacheable(config) == false) {
+			JSONObject result = super.execute(config, unknowType);
+			if (unknowType) {  // 不知道具体执行了什么，可能修改了表
+				onTableUpdated(config.getTable());
+			}
+			return result;
+		}
+
+		boolean isPrepared = config.isPrepared();
+		String sql = config.getSQL(false);
+		config.setPrepared(isPrepared);
+
+		if (StringUtil.isEmpty(sql, true) || getCache(sql, config.getCache()) != null) {  // 当前请求已经缓存了
+			return super.execute(config, unknowType);
+		}
+
+		String table = config.getTable();
+		String key = config.getDatasource() + "|" + config.getDatabase() + "|" + sql;
+
+		List<JSONObject> list = cache.get(key);
+		if (list != null) {
+			putCache(sql, list, config.getCache());  // 让 super.execute 直接从当前请求的缓存中取，和重复查询的处理一致
+			JSONObject result = super.execute(config, unknowType);
+			if (config.getPosition() == 0 && list.size() > 1 && result != null && result.isEmpty() == false) {
+				// 和没命中时一样，数组主表对象额外返回全部，否则 AbstractObjectParser 不会缓存其它位置的数据，[] 中只有第一项
+				result = new JSONObject(result);
+				result.put(KEY_RAW_LIST, list);
+			}
+			return result;
+		}
+
+		long version = cache.getVersion(table);
+		JSONObject result = super.execute(config, unknowType);
+		cache.put(key, table, version, getCache(sql, config.getCache()));
+		return result;
+	}
+
+	/**SQL JOIN 的副表是分片表时不知道该连哪个分片的表，直接拒绝，@ APP JOIN 的副表会在 executeAppJoin 中按分片查询
+	 * @param config
+	 */
+	protected void checkShardJoin(@NotNull SQLConfig config) {
+		List<Join> joinList = APIJSONSQLConfig.SHARD_COUNT <= 1 ? null : config.getJoinList();
+		if (joinList == null) {
+			return;
+		}
+
+		for (Join j : joinList) {
+			SQLConfig jc = j.isAppJoin() ? null : j.getJoinConfig();
+			if (jc instanceof APIJSONSQLConfig && ((APIJSONSQLConfig) jc).isShardTable()) {
+				throw new IllegalArgumentException(jc.getTable() + " 是分片表，不支持 SQL JOIN，请用 @ APP JOIN ！");
+			}
+		}
+	}
+
+	private int shardSQLCount;
+
+	/**
+	 * @return 包括在所有分片执行 PUT, DELETE 时每个分片的 SQL
+	 */
+	@Override
+	public int getExecutedSQLCount() {
+		return super.getExecutedSQLCount() + shardSQLCount;
+	}
+
+	/**执行分片表的 SQL，有分片键则只在对应分片执行，否则：
+	 * <br > GET, GETS 在所有分片查询前 (page + 1) * count 条，合并后按 @order 排序再分页；
+	 * <br > HEAD, HEADS 把所有分片的数量加起来；PUT, DELETE 在所有分片执行；POST 必须有分片键
+	 * @param config
+	 * @param unknowType
+	 * @return
+	 * @throws Exception
+	 */
+	protected JSONObject executeShard(@NotNull APIJSONSQLConfig config, boolean unknowType) throws Exception {
+		int shardCount = APIJSONSQLConfig.SHARD_COUNT;
+		RequestMethod method = config.getMethod();
+
+		Object key = config.getShardKeyValue();
+		if (key != null || unknowType || config.isExplain()) {
+			try {
+				config.setShard(key == null ? 0 : APIJSONSQLConfig.SHARD_FUNCTION.getShard(config, key, shardCount));
+				return execute(config, unknowType);
+			}
+			finally {
+				config.setShard(null);
+			}
+		}
+
+		if (method == RequestMethod.POST) {
+			throw new IllegalArgumentException(config.getTable() + " 是分片表，新增时必须传 " + config.getUserIdKey() + " ！");
+		}
+
+		if (RequestMethod.isHeadMethod(method, true)) {
+			long total = 0;
+			try {
+				for (int i = 0; i < shardCount; i++) {
+					config.setShard(i);
+					JSONObject result = execute(config, false);
+					total += result == null ? 0 : result.getLongValue(JSONResponse.KEY_COUNT);
+				}
+			}
+			finally {
+				config.setShard(null);
+			}
+
+			JSONObject result = AbstractParser.newSuccessResult();
+			result.put(JSONResponse.KEY_COUNT, total);
+			return result;
+		}
+
+		if (RequestMethod.isGetMethod(method, true)) {
+			boolean isPrepared = config.isPrepared();
+			String sql = config.getSQL(false);
+			config.setPrepared(isPrepared);
+
+			if (getCache(sql, config.getCache()) == null) {  // 数组中的其它项直接从缓存取
+				putCache(sql, queryShards(config, shardCount), config.getCache());
+			}
+			return super.execute(config, unknowType);
+		}
+
+		if (batchStatement != null) {
+			flushBatch();
+		}
+
+		int count = 0;
+		try {
+			for (int i = 0; i < shardCount; i++) {
+				config.setShard(i);
+				config.setPreparedValueList(new ArrayList<Object>());  // 非 SELECT 的 getSQL 不会清空，重复 add 会导致参数错位
+				shardSQLCount ++;  // 没经过 super.execute，不会计数
+				count += super.executeUpdate(config);
+			}
+		}
+		finally {
+			config.setShard(null);
+		}
+
+		if (count <= 0) {
+			throw new IllegalAccessException("没权限访问或对象不存在！");
+		}
+		onTableUpdated(config.getTable());
+
+		JSONObject result = AbstractParser.newSuccessResult();
+		result.put(JSONResponse.KEY_COUNT, count);
+		if (config.getId() != null) {
+			result.put(config.getIdKey(), config.getId());
+		} else {
+			result.put(config.getIdKey() + "[]", config.getWhere(config.getIdKey() + "{}", true));
+		}
+		return result;
+	}
+
+	/**在所有分片查询并合并结果
+	 * @param config
+	 * @param shardCount
+	 * @return 按 @order 排序并分页后的结果
+	 * @throws Exception
+	 */
+	protected List<JSONObject> queryShards(@NotNull APIJSONSQLConfig config, int shardCount) throws Exception {
+		final int count = config.getCount();
+		final int page = config.getPage();
+		final int position = config.getPosition();
+
+		List<JSONObject> list = new ArrayList<>();
+		try {
+			// 每个分片都可能包含全局前 (page + 1) * count 条中的任意条
+			config.setPage(0);
+			config.setCount(count <= 0 ? count : (page + 1)*count);
+			config.setPosition(0);
+
+			for (int i = 0; i < shardCount; i++) {
+				config.setShard(i);
+				execute(config, false);
+
+				boolean isPrepared = config.isPrepared();
+				String shardSQL = config.getSQL(false);
+				config.setPrepared(isPrepared);
+
+				List<JSONObject> shardList = getCache(shardSQL, config.getCache());
+				if (shardList != null) {
+					list.addAll(shardList);
+				}
+			}
+		}
+		finally {
+			config.setShard(null);
+			config.setPage(page);
+			config.setCount(count);
+			config.setPosition(position);
+		}
+
+		Comparator<JSONObject> comparator = newOrderComparator(config.getOrder());
+		if (comparator != null) {
+			Collections.sort(list, comparator);
+		}
+
+		if (count <= 0) {
+			return list;
+		}
+		int start = Math.min(list.size(), page*count);
+		return new ArrayList<>(list.subList(start, Math.min(list.size(), start + count)));
+	}
+
+	/**根据 @order 创建内存中的排序规则，例如 "date-,id+" 或 "date DESC,id"
+	 * @param order
+	 * @return 没有排序或者排序中有函数等没法在内存中排序则返回 null，按分片顺序合并
+	 */
+	protected static Comparator<JSONObject> newOrderComparator(String order) {
+		if (StringUtil.isEmpty(order, true)) {
+			return null;
+		}
+
+		String[] items = StringUtil.split(order);
+		final String[] keys = new String[items.length];
+		final boolean[] descs = new boolean[items.length];
+		for (int i = 0; i < items.length; i++) {
+			String item = items[i].trim();
+			String upper = item.toUpperCase();
+			boolean desc = item.endsWith("-") || upper.endsWith(" DESC");
+			if (item.endsWith("-") || item.endsWith("+")) {
+				item = item.substring(0, item.length() - 1);
+			}
+			else if (upper.endsWith(" DESC") || upper.endsWith(" ASC")) {
+				item = item.substring(0, item.lastIndexOf(" ")).trim();
+			}
+
+			if (StringUtil.isName(item) == false) {
+				return null;
+			}
+			keys[i] = item;
+			descs[i] = desc;
+		}
+
+		return new Comparator<JSONObject>() {
+
+			@Override
+			public int compare(JSONObject o1, JSONObject o2) {
+				for (int i = 0; i < keys.length; i++) {
+					int c = compareValue(o1 == null ? null : o1.get(keys[i]), o2 == null ? null : o2.get(keys[i]));
+					if (c != 0) {
+						return descs[i] ? -c : c;
+					}
+				}
+				return 0;
+			}
+		};
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static int compareValue(Object v1, Object v2) {
+		if (v1 == null || v2 == null) {  // 和 MySQL 一样 NULL 最小
+			return v1 == v2 ? 0 : (v1 == null ? -1 : 1);
+		}
+		if (v1 instanceof Number && v2 instanceof Number) {
+			if ((v1 instanceof Long || v1 instanceof Integer) && (v2 instanceof Long || v2 instanceof Integer)) {
+				return Long.compare(((Number) v1).longValue(), ((Number) v2).longValue());
+			}
+			return new BigDecimal(v1.toString()).compareTo(new BigDecimal(v2.toString()));
+		}
+		if (v1 instanceof Comparable && v1.getClass() == v2.getClass()) {
+			return ((Comparable) v1).compareTo(v2);
+		}
+		return v1.toString().compareTo(v2.toString());
+	}
+
+	/**@ APP JOIN 查询副表并缓存到 childMap，和 super.executeAppJoin 的结果一致，但是：
+	 * <br > 值去重不再是 List.contains，IN 中的值太多则按 getMaxInCount 分成多条 SQL，
+	 * <br > 不在事务中时多条 SQL 分别用连接池中的连接并发查询，副表是分片表则按分片查询。
+	 * <br > 副表结果和主表的合并仍然按单条副表 SQL 放到 childMap，解析主表每一行时也是按这条 SQL 从缓存中取，
+	 * 这是 AbstractSQLExecutor 和 AbstractParser 的约定，所以没法改成按 long 类型的 id 合并
+	 * @param config
+	 * @param resultList
+	 * @param childMap
+	 * @throws Exception
+	 */
+	@Override
+	protected void executeAppJoin(SQLConfig config, List<JSONObject> resultList, Map<String, JSONObject> childMap) throws Exception {
+		List<Join> joinList = config.getJoinList();
+		if (joinList == null) {
+			return;
+		}
+
+		for (Join j : joinList) {
+			if (j.isAppJoin() == false) {
+				continue;
+			}
+
+			SQLConfig cc = j.getCacheConfig(); //这里用config改了getSQL后再还原很麻烦，所以提前给一个config2更好
+			if (cc == null) {
+				if (Log.DEBUG) {
+					throw new NullPointerException("服务器内部错误, executeAppJoin cc == null ! 导致不能缓存 @ APP JOIN 的副表数据！");
+				}
+				continue;
+			}
+
+			List<Object> targetValueList = getTargetValueList(resultList, j.getTargetKey());
+			if (targetValueList.isEmpty()) {  // 主表都没有关联的值，副表也就查不到
+				continue;
+			}
+
+			SQLConfig jc = j.getJoinConfig();
+			jc.putWhere(j.getOriginKey(), null, false);  // remove orginKey
+			jc.setMain(true);
+
+			long startTime = System.currentTimeMillis();
+			List<List<JSONObject>> chunkList;
+			APIJSONSQLConfig shardConfig = jc instanceof APIJSONSQLConfig ? (APIJSONSQLConfig) jc : null;
+			if (shardConfig != null && shardConfig.getShard() == null && shardConfig.isShardTable()) {
+				chunkList = new ArrayList<>();
+				List<List<Object>> shardValueList = getShardValueList(shardConfig, j.getKey(), targetValueList);
+				try {
+					for (int i = 0; i < shardValueList.size(); i++) {
+						List<Object> valueList = shardValueList.get(i);
+						if (valueList.isEmpty() == false) {
+							shardConfig.setShard(i);
+							chunkList.addAll(queryAppJoin(j, jc, valueList));
+						}
+					}
+				}
+				finally {
+					shardConfig.setShard(null);
+				}
+			}
+			else {
+				chunkList = queryAppJoin(j, jc, targetValueList);
+			}
+			Log.d(TAG, "executeAppJoin  " + jc.getTable() + " chunkList.size() = " + chunkList.size()
+					+ "; duration = " + (System.currentTimeMillis() - startTime));
+
+			//缓存到 childMap，cc 会被修改，只能在当前线程
+			String key = j.getKey();
+			for (List<JSONObject> list : chunkList) {
+				for (JSONObject result : list) {
+					cc.putWhere(key, result.get(key), true);
+					childMap.put(cc.getSQL(false), result);
+				}
+			}
+		}
+	}
+
+	/**把 "id{}": [userId1, userId2, userId3...] 按 getMaxInCount 分成多条 SQL 并查询
+	 * @param j
+	 * @param jc
+	 * @param targetValueList
+	 * @return 每条 SQL 查到的结果
+	 * @throws Exception
+	 */
+	protected List<List<JSONObject>> queryAppJoin(@NotNull Join j, @NotNull SQLConfig jc, @NotNull List<Object> targetValueList) throws Exception {
+		int maxCount = getMaxInCount(jc);
+		List<String> sqlList = new ArrayList<>();
+		List<List<Object>> valuesList = new ArrayList<>();
+		for (int start = 0; start < targetValueList.size(); start += maxCount) {
+			jc.putWhere(j.getKey() + "{}", targetValueList.subList(start, Math.min(targetValueList.size(), start + maxCount)), true);
+			jc.setPreparedValueList(new ArrayList<>());
+
+			String sql = jc.getSQL(jc.isPrepared());
+			if (StringUtil.isEmpty(sql, true)) {
+				throw new NullPointerException(TAG + ".executeAppJoin  StringUtil.isEmpty(sql, true) >> return null;");
+			}
+			sqlList.add(sql);
+			valuesList.add(jc.isPrepared() && jc.getPreparedValueList() != null ? new ArrayList<>(jc.getPreparedValueList()) : null);
+		}
+		return queryAppJoin(jc, sqlList, valuesList);
+	}
+
+	/**分片表作为 @ APP JOIN 副表时，获取每个分片要查询的值
+	 * @param config
+	 * @param key 副表中关联的 key
+	 * @param targetValueList
+	 * @return 第 i 项为第 i 个分片要查询的值，key 是分片键则只查对应的分片，否则每个分片都要查所有的值
+	 */
+	protected static List<List<Object>> getShardValueList(@NotNull APIJSONSQLConfig config, String key, @NotNull List<Object> targetValueList) {
+		int shardCount = APIJSONSQLConfig.SHARD_COUNT;
+		boolean isShardKey = key != null && key.equals(config.getUserIdKey());
+
+		List<List<Object>> shardValueList = new ArrayList<>(shardCount);
+		for (int i = 0; i < shardCount; i++) {
+			shardValueList.add(isShardKey ? new ArrayList<Object>() : targetValueList);
+		}
+		if (isShardKey) {
+			for (Object value : targetValueList) {
+				shardValueList.get(APIJSONSQLConfig.SHARD_FUNCTION.getShard(config, value, shardCount)).add(value);
+			}
+		}
+		return shardValueList;
+	}
+
+	/**取出 "id@": "@/User/userId" 中所有 userId 的值并去重
+	 * @param resultList
+	 * @param targetKey
+	 * @return 按在 resultList 中的顺序排列
+	 */
+	protected static List<Object> getTargetValueList(@NotNull List<JSONObject> resultList, String targetKey) {
+		List<Object> targetValueList = new ArrayList<>();
+		LongHashSet longSet = null;  // id 基本都是整数，不用装箱后再比较
+		Set<Object> otherSet = null;
+
+		for (JSONObject mainTable : resultList) {
+			Object targetValue = mainTable == null ? null : mainTable.get(targetKey);
+			if (targetValue == null) {
+				continue;
+			}
+
+			boolean isNew;
+			if (targetValue instanceof Long || targetValue instanceof Integer || targetValue instanceof Short || targetValue instanceof Byte) {
+				if (longSet == null) {
+					longSet = new LongHashSet(resultList.size());
+				}
+				isNew = longSet.add(((Number) targetValue).longValue());
+			}
+			else {
+				if (otherSet == null) {
+					otherSet = new HashSet<>();
+				}
+				isNew = otherSet.add(targetValue);
+			}
+
+			if (isNew) {
+				targetValueList.add(targetValue);
+			}
+		}
+		return targetValueList;
+	}
+
+	/**获取一条 SQL 中 IN 最多能有多少个值，各数据库对 IN 的数量或预编译参数的数量都有限制，再留一些给其它条件
+	 * @param config
+	 * @return
+	 */
+	protected int getMaxInCount(@NotNull SQLConfig config) {
+		int limit;
+		if (config.isOracle()) {  // ORA-01795: maximum number of expressions in a list is 1000
+			limit = 1000;
+		}
+		else if (config.isSQLServer()) {  // 最多 2100 个参数
+			limit = 2000;
+		}
+		else if (config.isPostgreSQL()) {  // 最多 32767 个参数
+			limit = 32000;
+		}
+		else if (config.isMySQL()) {  // 最多 65535 个参数
+			limit = 65000;
+		}
+		else {
+			limit = 1000;
+		}
+		return APP_JOIN_MAX_IN_COUNT <= 0 ? limit : Math.min(limit, APP_JOIN_MAX_IN_COUNT);
+	}
+
+	/**执行 @ APP JOIN 副表的多条 SQL，第一组在当前连接执行，其它组在连接池中的连接并发执行
+	 * @param jc
+	 * @param sqlList
+	 * @param valuesList
+	 * @return 每条 SQL 查到的结果，和 sqlList 一一对应
+	 * @throws Exception
+	 */
+	protected List<List<JSONObject>> queryAppJoin(@NotNull final SQLConfig jc, @NotNull final List<String> sqlList
+			, @NotNull final List<List<Object>> valuesList) throws Exception {
+		final int size = sqlList.size();
+		final List<List<JSONObject>> chunkList = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			chunkList.add(null);
+		}
+
+		ConnectionPool pool = CONNECTION_POOL;
+		ThreadPoolExecutor executor = APP_JOIN_EXECUTOR;
+		final int groupCount = size <= 1 || pool == null || executor == null || getTransactionIsolation() != Connection.TRANSACTION_NONE
+				? 1 : Math.min(size, APP_JOIN_PARALLEL_COUNT);  // 事务中只能用同一个连接
+
+		List<Future<Void>> futureList = new ArrayList<>(Math.max(0, groupCount - 1));
+		for (int g = 1; g < groupCount; g++) {
+			final int group = g;
+			futureList.add(executor.submit(new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					queryAppJoinGroup(jc, sqlList, valuesList, chunkList, group, groupCount);
+					return null;
+				}
+			}));
+		}
+
+		Exception error = null;
+		try {
+			for (int i = 0; i < size; i += groupCount) {  // 当前线程也查一组，少占一个线程
+				PreparedStatement statement = prepareStatement(jc, sqlList.get(i));
+				setArguments(jc, statement, valuesList.get(i));
+				chunkList.set(i, readAppJoinRows(jc, sqlList.get(i), statement));
+			}
+		}
+		catch (Exception e) {
+			error = e;
+		}
+
+		for (Future<Void> future : futureList) {  // 出错了也要等其它组结束，避免请求结束后还占着连接查询
+			try {
+				future.get();
+			}
+			catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (error == null) {
+					error = cause instanceof Exception ? (Exception) cause : e;
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				if (error == null) {
+					error = e;
+				}
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+
+		return chunkList;
+	}
+
+	/**用一个单独的连接依次执行第 group, group + groupCount, ... 条 SQL
+	 */
+	private void queryAppJoinGroup(@NotNull SQLConfig jc, @NotNull List<String> sqlList, @NotNull List<List<Object>> valuesList
+			, @NotNull List<List<JSONObject>> chunkList, int group, int groupCount) throws Exception {
+		ConnectionPool pool = CONNECTION_POOL;
+		String replicaUri = getReplicaUri(jc);
+		Connection connection = replicaUri == null ? pool.getConnection(jc)
+				: pool.getConnection(jc.getDatabase(), replicaUri, jc.getDBAccount(), jc.getDBPassword());
+		try {
+			for (int i = group; i < sqlList.size(); i += groupCount) {
+				PreparedStatement statement = connection.prepareStatement(sqlList.get(i));
+				try {
+					if (deadline > 0) {
+						statement.setQueryTimeout(getQueryTimeout());
+					}
+					setArguments(jc, statement, valuesList.get(i));
+
+					chunkList.set(i, readAppJoinRows(jc, sqlList.get(i), statement));  // 各组只 set 自己的位置，Future.get 后对当前线程可见
+				}
+				finally {
+					statement.close();
+				}
+			}
+		}
+		catch (SQLException e) {
+			throw onSQLException(e);
+		}
+		finally {
+			pool.release(connection);
+		}
+	}
+
+	private PreparedStatement setArguments(@NotNull SQLConfig config, @NotNull PreparedStatement statement, List<Object> valueList) throws SQLException {
+		if (valueList != null) {
+			for (int i = 0; i < valueList.size(); i++) {
+				statement = setArgument(config, statement, i, valueList.get(i));
+			}
+		}
+		return statement;
+	}
+
+	private List<JSONObject> readAppJoinRows(@NotNull SQLConfig jc, @NotNull String sql, @NotNull PreparedStatement statement) throws Exception {
+		List<JSONObject> list = new ArrayList<>();
+		ResultSet rs = statement.executeQuery();  // 可能在其它线程，不 bindRowDecoder，直接用局部的 RowDecoder
+		try {
+			ResultSetMetaData rsmd = rs.getMetaData();
+			final int length = rsmd.getColumnCount();
+
+			RowDecoderBinding binding = null;
+			int index = -1;
+			while (rs.next()) {
+				index ++;
+				if (binding == null) {
+					binding = new RowDecoderBinding(getRowDecoderKey(jc, sql));
+					binding.bind(jc, getRowDecoder(jc, binding.key, rs, rsmd, index, new JSONObject(true)));
+				}
+
+				JSONObject result = COMPACT_ROW ? new JSONObject(new CompactRow(binding.decoder)) : new JSONObject(true);
+				for (int i = 1; i <= length; i++) {
+					result = putColumn(jc, rs, rsmd, index, result, i, binding.decoder, binding.kinds);
+				}
+				list.add(result);
+			}
+		}
+		finally {
+			rs.close();
+		}
+		return list;
+	}
+
+
+	/**是否可以使用共享的查询结果缓存，JOIN 的副表数据和子查询中的表在写操作时不会失效，所以不缓存
+	 * <br > 配置表(Access, Request, Function 等)默认也不缓存，可以重写这个方法来改变
+	 * @param config
+	 * @return
+	 */
+	protected boolean isResultCacheable(@NotNull SQLConfig config) {
+		if (config instanceof APIJSONSQLConfig && ((APIJSONSQLConfig) config).isConfigTable()) {
+			return false;
+		}
+		if (config.hasJoin() || config.getFrom() != null) {
+			return false;
+		}
+
+		Map<String, Object> where = config.getWhere();
+		if (where != null) {
+			for (Object value : where.values()) {
+				if (value instanceof Subquery) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int executeUpdate(@NotNull SQLConfig config) throws Exception {
+		RequestMethod method = config.getMethod();
+		if (batchConfigList != null) {
+			if ((method == RequestMethod.POST || method == RequestMethod.PUT) && config.isPrepared()) {
+				return addBatch(config);
+			}
+			flushBatch();  // 保证执行顺序
+			batchStart ++;
+			batchConfigList.add(config);
+		}
+
+		int count = super.executeUpdate(config);
+		if (count > 0) {
+			onTableUpdated(config.getTable());
+		}
+		return count;
+	}
+
+
+	/**
+	 * 批处理中的所有 SQLConfig，不为 null 说明在批处理中
+	 */
+	protected List<SQLConfig> batchConfigList;
+	private PreparedStatement batchStatement;
+	private String batchSQL;
+	private int batchStart;
+
+	public boolean isBatch() {
+		return batchConfigList != null;
+	}
+
+	/**开始批处理，之后 POST, PUT 的 executeUpdate 只是 addBatch，SQL 改变、达到 MAX_BATCH_SIZE、执行其它 SQL 或 endBatch 时才 executeBatch
+	 */
+	public void beginBatch() {
+		batchConfigList = new ArrayList<>();
+		batchStatement = null;
+		batchSQL = null;
+		batchStart = 0;
+	}
+
+	/**结束批处理，执行剩下的 SQL
+	 * @return 批处理中的所有 SQLConfig，按 executeUpdate 的顺序，其中数据库自增的 id 已通过 setId 设置
+	 * @throws Exception
+	 */
+	public List<SQLConfig> endBatch() throws Exception {
+		try {
+			flushBatch();
+			return batchConfigList;
+		}
+		finally {
+			cancelBatch();
+		}
+	}
+
+	/**取消批处理，丢弃还没执行的 SQL，出错时调用，之后会 rollback
+	 */
+	public void cancelBatch() {
+		if (batchStatement != null) {
+			try {
+				batchStatement.clearBatch();
+			}
+			catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+
+		batchConfigList = null;
+		batchStatement = null;
+		batchSQL = null;
+		batchStart = 0;
+	}
+
+	/**把 POST, PUT 加到批处理中，同一条预编译 SQL 才能合并
+	 * @param config
+	 * @return 1，实际的 count 在 executeBatch 后校验
+	 * @throws Exception
+	 */
+	protected int addBatch(@NotNull SQLConfig config) throws Exception {
+		String sql = config.getSQL(true);
+		if (batchStatement != null && sql.equals(batchSQL) == false) {
+			flushBatch();
+		}
+
+		if (batchStatement == null) {
+			batchStatement = prepareStatement(config, sql);
+			batchSQL = sql;
+		}
+		else {
+			batchStatement.clearParameters();
+		}
+
+		setArguments(config, batchStatement).addBatch();
+		batchConfigList.add(config);
+
+		if (batchConfigList.size() - batchStart >= MAX_BATCH_SIZE) {
+			flushBatch();
+		}
+		return 1;
+	}
+
+	/**执行已经 addBatch 的 SQL，并校验每一行的 count 是否为 1，和逐行 executeUpdate 的校验一致
+	 * @throws Exception
+	 */
+	public void flushBatch() throws Exception {
+		PreparedStatement statement = batchStatement;
+		if (statement == null) {
+			return;
+		}
+
+		int start = batchStart;
+		List<SQLConfig> list = batchConfigList.subList(start, batchConfigList.size());
+		batchStatement = null;
+		batchSQL = null;
+		batchStart = batchConfigList.size();
+
+		int[] counts;
+		try {
+			counts = statement.executeBatch();
+		}
+		catch (SQLException e) {
+			throw onSQLException(e);
+		}
+		finally {
+			statement.clearBatch();
+		}
+
+		SQLConfig first = list.get(0);
+		if (first.getMethod() == RequestMethod.POST && first.getId() == null) { //自增id
+			ResultSet rs = statement.getGeneratedKeys();
+			if (rs != null) {
+				try {
+					for (SQLConfig config : list) {
+						if (rs.next() == false) {
+							break;
+						}
+						config.setId(rs.getLong(1)); //返回插入的主键id
+					}
+				}
+				finally {
+					rs.close();
+				}
+			}
+		}
+
+		for (int i = 0; i < counts.length; i++) {
+			int count = counts[i];
+			if (count == Statement.SUCCESS_NO_INFO) {  // 部分驱动批处理不返回每行的 count
+				continue;
+			}
+			if (count <= 0) {
+				throw new IllegalAccessException("没权限访问或对象不存在！批量新增/修改中第 " + (start + i) + " 项失败！");
+			}
+			if (count != 1) {
+				throw new ServerException("批量新增/修改失败！" + first.getTable() + "/" + (start + i) + "：成功但 count != 1 ！");
+			}
+		}
+
+		onTableUpdated(first.getTable());
+	}
+
+	/**表被修改后让共享的查询结果缓存失效，并增加表的版本号
+	 * @param table
+	 */
+	protected void onTableUpdated(String table) {
+		if (table == null) {
+			return;
+		}
+
+		ResultCache cache = RESULT_CACHE;
+		if (cache != null) {
+			cache.invalidate(table);  // 会把版本号 +1
+		}
+		else {
+			incrementTableVersion(table);
+		}
+		if (updatedTableSet == null) {
+			updatedTableSet = new HashSet<>();
+		}
+		updatedTableSet.add(table);
+	}
+
+	@Override
+	public void commit() throws SQLException {
+		if (connectionMap == null || connectionMap.size() <= 1) {
+			super.commit();
+		}
+		else {  // 分片等情况下同一个请求可能修改了多个数据库
+			for (Connection c : connectionMap.values()) {
+				if (c != null && c.isClosed() == false && c.getAutoCommit() == false) {
+					c.commit();
+				}
+			}
+		}
+
+		// 提交前其它请求可能又查到并缓存了修改前的数据，或者用修改后的版本号算出了修改前的数据的 ETag
+		ResultCache cache = RESULT_CACHE;
+		if (updatedTableSet != null) {
+			for (String table : updatedTableSet) {
+				if (cache != null) {
+					cache.invalidate(table);  // 会把版本号 +1
+				}
+				else {
+					incrementTableVersion(table);
+				}
+			}
+			updatedTableSet.clear();
+		}
+	}
+
+	@Override
+	public void rollback() throws SQLException {
+		if (connectionMap == null || connectionMap.size() <= 1) {
+			super.rollback();
+		}
+		else {
+			for (Connection c : connectionMap.values()) {
+				if (c != null && c.isClosed() == false && c.getAutoCommit() == false) {
+					c.rollback();
+				}
+			}
+		}
+		if (updatedTableSet != null) {
+			updatedTableSet.clear();
+		}
+	}
+
+
+	private ArrayStreamWriter streamWriter;
+	public ArrayStreamWriter getStreamWriter() {
+		return streamWriter;
+	}
+	/**设置后，表名为 streamWriter.getTable() 的 GET 查询结果不保存到 resultList，而是每一行直接写出
+	 * @param streamWriter
+	 * @return
+	 */
+	public APIJSONSQLExecutor setStreamWriter(ArrayStreamWriter streamWriter) {
+		this.streamWriter = streamWriter;
+		return this;
+	}
+
+	/**是否为流式输出的查询
+	 * @param config
+	 * @return
+	 */
+	protected boolean isStream(@NotNull SQLConfig config) {
+		return streamWriter != null && config.isExplain() == false && RequestMethod.isGetMethod(config.getMethod(), true)
+				&& streamWriter.getTable().equals(config.getTable());
+	}
+
+	@Override
+	protected List<JSONObject> onPutTable(@NotNull SQLConfig config, @NotNull ResultSet rs, @NotNull ResultSetMetaData rsmd
+			, @NotNull List<JSONObject> resultList, int position, @NotNull JSONObject table) {
+		if (isStream(config) == false) {
+			return super.onPutTable(config, rs, rsmd, resultList, position, table);
+		}
+
+		try {
+			streamWriter.writeRow(table);
+		}
+		catch (IOException e) {  // 一般是客户端断开了，没必要继续查
+			throw new UncheckedIOException(e);
+		}
+		return resultList;
+	}
+
+
+	/**
+	 * 最近一次 getStatement 的 SQL
+	 */
+	private String statementSQL;
+	/**
+	 * <ResultSet, RowDecoderBinding>，每个 ResultSet 单独绑定，ResultSet 关闭后在 execute 结束时移除
+	 */
+	private final Map<ResultSet, RowDecoderBinding> rowDecoderBindingMap = new ConcurrentHashMap<>();
+
+	/**让 onPutColumn 对 rs 的每一行都用同一个 RowDecoder，不再每行每列都从 ResultSetMetaData 取列名、类型等
+	 * @param config
+	 * @param sql
+	 * @param rs
+	 * @return rs
+	 */
+	protected ResultSet bindRowDecoder(@NotNull SQLConfig config, String sql, ResultSet rs) {
+		if (rs != null && sql != null) {
+			rowDecoderBindingMap.put(rs, new RowDecoderBinding(getRowDecoderKey(config, sql)));
+		}
+		return rs;
+	}
+
+	/**移除已关闭的 ResultSet 的绑定
+	 */
+	protected void unbindClosedRowDecoders() {
+		if (rowDecoderBindingMap.isEmpty()) {
+			return;
+		}
+
+		Iterator<ResultSet> iterator = rowDecoderBindingMap.keySet().iterator();
+		while (iterator.hasNext()) {
+			ResultSet rs = iterator.next();
+			boolean closed;
+			try {
+				closed = rs.isClosed();
+			}
+			catch (Throwable e) {  // 旧驱动没实现 isClosed
+				closed = true;
+			}
+			if (closed) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private static String getRowDecoderKey(@NotNull SQLConfig config, @NotNull String sql) {
+		return config.getDatasource() + "|" + config.getDatabase() + "|" + sql;
+	}
+
+	/**获取 rs 对应的 RowDecoder，第一次取时按 SQL 从 ROW_DECODER_MAP 中取，没有则生成
+	 * @return 没有通过 bindRowDecoder 绑定则返回 null
+	 * @throws Exception
+	 */
+	protected RowDecoder getRowDecoder(@NotNull SQLConfig config, @NotNull ResultSet rs, @NotNull ResultSetMetaData rsmd
+			, final int tablePosition, @NotNull JSONObject table) throws Exception {
+		RowDecoderBinding binding = rowDecoderBindingMap.get(rs);
+		if (binding == null) {
+			return null;
+		}
+		if (binding.decoder == null) {
+			binding.bind(config, getRowDecoder(config, binding.key, rs, rsmd, tablePosition, table));
+		}
+		return binding.decoder;
+	}
+
+	/**按 SQL 从 ROW_DECODER_MAP 中取 RowDecoder，没有或者列已经变了则生成，每个 ResultSet 只取一次
+	 * @throws Exception
+	 */
+	private RowDecoder getRowDecoder(@NotNull SQLConfig config, @NotNull String key, @NotNull ResultSet rs, @NotNull ResultSetMetaData rsmd
+			, final int tablePosition, @NotNull JSONObject table) throws Exception {
+		RowDecoder decoder = MAX_ROW_DECODER_COUNT <= 0 ? null : ROW_DECODER_MAP.get(key);
+		if (decoder == null || decoder.matches(rsmd) == false) {
+			decoder = newRowDecoder(config, rs, rsmd, tablePosition, table);
+			ROW_DECODER_MAP.put(key, decoder);
+		}
+		return decoder;
+	}
+
+	/**根据 ResultSetMetaData 生成 RowDecoder，isHideColumn 和 getKey 的结果只能和列有关，和行无关
+	 * @return
+	 * @throws Exception
+	 */
+	protected RowDecoder newRowDecoder(@NotNull SQLConfig config, @NotNull ResultSet rs, @NotNull ResultSetMetaData rsmd
+			, final int tablePosition, @NotNull JSONObject table) throws Exception {
+		int length = rsmd.getColumnCount();
+		String[] labels = new String[length + 1];
+		String[] columnLabels = new String[length + 1];
+		int[] types = new int[length + 1];
+		boolean[] hides = new boolean[length + 1];
+		boolean[] jsons = new boolean[length + 1];
+
+		for (int i = 1; i <= length; i++) {
+			columnLabels[i] = rsmd.getColumnLabel(i);
+			types[i] = rsmd.getColumnType(i);
+			hides[i] = isHideColumn(config, rs, rsmd, tablePosition, table, i, null);
+			if (hides[i]) {
+				continue;
+			}
+			labels[i] = getKey(config, rs, rsmd, tablePosition, table, i, null);
+			jsons[i] = isJSONType(config, rsmd, i, labels[i]);
+		}
+		return new RowDecoder(labels, columnLabels, types, hides, jsons);
+	}
+
+	@Override
+	protected JSONObject onPutColumn(@NotNull SQLConfig config, @NotNull ResultSet rs, @NotNull ResultSetMetaData rsmd
+			, final int tablePosition, @NotNull JSONObject table, final int columnIndex, Map<String, JSONObject> childMap) throws Exception {
+		RowDecoderBinding binding = childMap != null ? null : rowDecoderBindingMap.get(rs);  // SQL JOIN 的副表字段还是按原来的方式
+		if (binding == null) {
+			return super.onPutColumn(config, rs, rsmd, tablePosition, table, columnIndex, childMap);
+		}
+		if (binding.decoder == null) {
+			binding.bind(config, getRowDecoder(config, binding.key, rs, rsmd, tablePosition, table));
+			binding.compact = COMPACT_ROW && isStream(config) == false;
+		}
+		if (columnIndex == 1 && binding.compact) {  // 每一行的第一列，后面的列直接放到 CompactRow 的数组中
+			table = new JSONObject(new CompactRow(binding.decoder));
+		}
+		return putColumn(config, rs, rsmd, tablePosition, table, columnIndex, binding.decoder, binding.kinds);
+	}
+
+	/**按 RowDecoder 中提前取出的列名、类型把一列的值放入 table
+	 * @param kinds 每一列取值的方式，见 RowDecoder.getKind
+	 * @return table
+	 * @throws Exception
+	 */
+	protected JSONObject putColumn(@NotNull SQLConfig config, @NotNull ResultSet rs, @NotNull ResultSetMetaData rsmd
+			, final int tablePosition, @NotNull JSONObject table, final int columnIndex, @NotNull RowDecoder decoder, @NotNull int[] kinds) throws Exception {
+		if (decoder.isHide(columnIndex)) {
+			return table;
+		}
+
+		String label = decoder.getLabel(columnIndex);
+		Object value;
+		switch (kinds[columnIndex]) {
+		case RowDecoder.KIND_VALUE:  // 和 getValue 的结果一致，不用再一个个 instanceof 判断
+			value = rs.getObject(columnIndex);
+			break;
+		case RowDecoder.KIND_TEMPORAL:
+			value = rs.getObject(columnIndex);
+			if (value instanceof Timestamp || value instanceof java.sql.Date || value instanceof Time) {
+				value = value.toString();
+			}
+			break;
+		default:
+			value = getValue(config, rs, rsmd, tablePosition, table, columnIndex, label, null);
+			break;
+		}
+
+		if (value != null) {
+			table.put(label, value);
+		}
+		return table;
+	}
+
+	private static class RowDecoderBinding {
+		final String key;
+		RowDecoder decoder;
+		int[] kinds;
+		/**
+		 * 是否直接取值到 CompactRow，流式输出时每行写完就丢弃，没必要
+		 */
+		boolean compact;
+
+		RowDecoderBinding(String key) {
+			this.key = key;
+		}
+
+		/**@json 中的列是字符串也要解析，只能用 getValue
+		 */
+		void bind(@NotNull SQLConfig config, @NotNull RowDecoder decoder) {
+			int length = decoder.getColumnCount();
+			int[] kinds = new int[length + 1];
+			List<String> json = config.getJson();
+			for (int i = 1; i <= length; i++) {
+				kinds[i] = json != null && json.contains(decoder.getLabel(i)) ? RowDecoder.KIND_OBJECT : decoder.getKind(i);
+			}
+			this.kinds = kinds;
+			this.decoder = decoder;
+		}
+	}
+
+
 	@Override
 	public PreparedStatement setArgument(@NotNull SQLConfig config, @NotNull PreparedStatement statement, int index, Object value) throws SQLException {
 		if (config.isPostgreSQL() && JSON.isBooleanOrNumberOrString(value) == false) {
@@ -91,7 +1771,16 @@ public class APIJSONSQLExecutor extends AbstractSQLExecutor {
 		
 		Object value = super.getValue(config, rs, rsmd, tablePosition, table, columnIndex, lable, childMap);
 
-		return value instanceof PGobject ? JSON.parse(((PGobject) value).getValue()) : value;
+		if (value instanceof PGobject == false) {
+			return value;
+		}
+
+		PGobject pgObject = (PGobject) value;
+		String type = pgObject.getType();
+		if (LAZY_JSON && ("jsonb".equals(type) || "json".equals(type))) {  // 大部分情况下只是原样返回，没必要解析后再序列化
+			return LazyJSON.valueOf(pgObject.getValue());
+		}
+		return JSON.parse(pgObject.getValue());
 	}
 
 
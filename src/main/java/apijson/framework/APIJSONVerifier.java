@@ -20,9 +20,13 @@ import static apijson.framework.APIJSONConstant.VISITOR_;
 import static apijson.framework.APIJSONConstant.VISITOR_ID;
 
 import java.rmi.ServerException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
@@ -65,6 +69,40 @@ public class APIJSONVerifier extends AbstractVerifier<Long> {
 		APIJSON_CREATOR = new APIJSONCreator();
 	}
 
+	/**
+	 * 权限配置的只读快照，initAccess 在旁边建好新的再整个替换，读取不用加锁，也不会读到清空或只加载了一半的
+	 */
+	private static volatile Map<String, Map<RequestMethod, String[]>> ACCESS_SNAPSHOT;
+	/**
+	 * 请求校验配置的只读快照，initRequest 在旁边建好新的再整个替换，读取不用加锁，也不会读到清空或只加载了一半的
+	 */
+	private static volatile Map<String, SortedMap<Integer, JSONObject>> REQUEST_SNAPSHOT;
+
+	/**
+	 * @return 还没有调用 initAccess 则为 null
+	 */
+	public static Map<String, Map<RequestMethod, String[]>> getAccessSnapshot() {
+		return ACCESS_SNAPSHOT;
+	}
+	/**
+	 * @return 还没有调用 initRequest 则为 null
+	 */
+	public static Map<String, SortedMap<Integer, JSONObject>> getRequestSnapshot() {
+		return REQUEST_SNAPSHOT;
+	}
+
+	/**把 target 更新为和 source 一样，先 put 再去掉多余的，不会有清空的时候
+	 * <br > 只用于同步 ACCESS_MAP, REQUEST_MAP, FUNCTION_MAP，兼容直接读取它们的旧代码，框架内只读快照
+	 * @param target
+	 * @param source
+	 */
+	public static <K, V> void replaceMap(@NotNull Map<K, V> target, @NotNull Map<K, V> source) {
+		synchronized (target) {
+			target.putAll(source);
+			target.keySet().retainAll(source.keySet());
+		}
+	}
+
 	/**初始化，加载所有权限配置和请求校验配置
 	 * @return 
 	 * @throws ServerException
@@ -173,12 +211,14 @@ public class APIJSONVerifier extends AbstractVerifier<Long> {
 			throw new NullPointerException("没有可用的权限配置");
 		}
 
-		Log.d(TAG, "initAccess < for ACCESS_MAP.size() = " + ACCESS_MAP.size() + " <<<<<<<<<<<<<<<<<<<<<<<<");
-
-		if (isAll) {  // 全量更新
-			ACCESS_MAP.clear();
+		Map<String, Map<RequestMethod, String[]>> accessMap = new HashMap<>();
+		if (isAll == false) {  // 增量更新，在现有的基础上改
+			Map<String, Map<RequestMethod, String[]>> snapshot = ACCESS_SNAPSHOT;
+			accessMap.putAll(snapshot != null ? snapshot : ACCESS_MAP);
 		}
 
+		Log.d(TAG, "initAccess < for accessMap.size() = " + accessMap.size() + " <<<<<<<<<<<<<<<<<<<<<<<<");
+
 		JSONObject item;
 		for (int i = 0; i < size; i++) {
 			item = list.getJSONObject(i);
@@ -212,20 +252,23 @@ public class APIJSONVerifier extends AbstractVerifier<Long> {
 					onServerError("name: " + name + "不合法！字段 alias 的值为空时，name 必须为合法表名！", shutdownWhenServerError);
 				}
 
-				ACCESS_MAP.put(name, map);
+				accessMap.put(name, Collections.unmodifiableMap(map));
 			}
 			else {
 				if (JSONRequest.isTableKey(alias) == false) {
 					onServerError("alias: " + alias + "不合法！字段 alias 的值只能为 空 或者 合法表名！", shutdownWhenServerError);
 				}
 
-				ACCESS_MAP.put(alias, map);
+				accessMap.put(alias, Collections.unmodifiableMap(map));
 			}
 
 			APIJSONSQLConfig.TABLE_KEY_MAP.put(alias, name);
 		}
 
-		Log.d(TAG, "initAccess  for /> ACCESS_MAP.size() = " + ACCESS_MAP.size() + " >>>>>>>>>>>>>>>>>>>>>>>");
+		ACCESS_SNAPSHOT = Collections.unmodifiableMap(accessMap);
+		replaceMap(ACCESS_MAP, accessMap);
+
+		Log.d(TAG, "initAccess  for /> accessMap.size() = " + accessMap.size() + " >>>>>>>>>>>>>>>>>>>>>>>");
 
 		return response;
 	}
@@ -299,12 +342,18 @@ public class APIJSONVerifier extends AbstractVerifier<Long> {
 			throw new NullPointerException("没有可用的权限配置");
 		}
 
-		Log.d(TAG, "initRequest < for REQUEST_MAP.size() = " + REQUEST_MAP.size() + " <<<<<<<<<<<<<<<<<<<<<<<<");
-
-		if (isAll) {  // 全量更新
-			REQUEST_MAP.clear();
+		Map<String, SortedMap<Integer, JSONObject>> requestMap = new HashMap<>();
+		if (isAll == false) {  // 增量更新，在现有的基础上改，快照里的是只读的，要复制
+			Map<String, SortedMap<Integer, JSONObject>> snapshot = REQUEST_SNAPSHOT;
+			for (Map.Entry<String, SortedMap<Integer, JSONObject>> entry : (snapshot != null ? snapshot : REQUEST_MAP).entrySet()) {
+				requestMap.put(entry.getKey(), new TreeMap<>(entry.getValue()));
+			}
 		}
 
+		Log.d(TAG, "initRequest < for requestMap.size() = " + requestMap.size() + " <<<<<<<<<<<<<<<<<<<<<<<<");
+
+		Set<String> bulkheadKeySet = new HashSet<>();
+
 		JSONObject item;
 		for (int i = 0; i < size; i++) {
 			item = list.getJSONObject(i);
@@ -359,7 +408,7 @@ public class APIJSONVerifier extends AbstractVerifier<Long> {
 			}
 
 			String cacheKey = getCacheKeyForRequest(method, tag);
-			SortedMap<Integer, JSONObject> versionedMap = REQUEST_MAP.get(cacheKey);
+			SortedMap<Integer, JSONObject> versionedMap = requestMap.get(cacheKey);
 			if (versionedMap == null) {
 				versionedMap = new TreeMap<>(new Comparator<Integer>() {
 
@@ -370,14 +419,46 @@ public class APIJSONVerifier extends AbstractVerifier<Long> {
 				});
 			}
 			versionedMap.put(Integer.valueOf(version), item);
-			REQUEST_MAP.put(cacheKey, versionedMap);
+			requestMap.put(cacheKey, versionedMap);
+
+			if (bulkheadKeySet.add(cacheKey)) {  // 按 version- 排序，第一个是最新版本的
+				initBulkhead(cacheKey, item);
+			}
+		}
+
+		if (isAll) {  // 全量更新，去掉已删除的，已取到的在请求结束时照常释放
+			Bulkhead.BULKHEAD_MAP.keySet().retainAll(bulkheadKeySet);
+		}
+
+		Map<String, SortedMap<Integer, JSONObject>> legacyMap = new HashMap<>(requestMap.size());
+		for (Map.Entry<String, SortedMap<Integer, JSONObject>> entry : requestMap.entrySet()) {
+			legacyMap.put(entry.getKey(), new TreeMap<>(entry.getValue()));  // AbstractParser.getStructure 会往里面 put，要和快照分开
+			entry.setValue(Collections.unmodifiableSortedMap(entry.getValue()));
 		}
+		REQUEST_SNAPSHOT = Collections.unmodifiableMap(requestMap);
+		replaceMap(REQUEST_MAP, legacyMap);
 
-		Log.d(TAG, "initRequest  for /> REQUEST_MAP.size() = " + REQUEST_MAP.size() + " >>>>>>>>>>>>>>>>>>>>>>>");
+		Log.d(TAG, "initRequest  for /> requestMap.size() = " + requestMap.size() + " >>>>>>>>>>>>>>>>>>>>>>>");
 
 		return response;
 	}
 
+	/**按 Request 表中的 maxConcurrency, maxQueue, queueTimeout 初始化舱壁，没有的字段用 Bulkhead 中的默认值
+	 * @param cacheKey
+	 * @param item
+	 */
+	protected static void initBulkhead(String cacheKey, JSONObject item) {
+		Integer maxConcurrency = item.getInteger("maxConcurrency");
+		Integer maxQueue = item.getInteger("maxQueue");
+		Long queueTimeout = item.getLong("queueTimeout");
+
+		Bulkhead.put(cacheKey
+				, maxConcurrency != null ? maxConcurrency : Bulkhead.DEFAULT_MAX_CONCURRENCY
+				, maxQueue != null ? maxQueue : Bulkhead.DEFAULT_MAX_QUEUE
+				, queueTimeout != null ? queueTimeout : Bulkhead.DEFAULT_QUEUE_TIMEOUT
+				);
+	}
+
 
 	public static void test() throws Exception {
 		testStructure();
@@ -521,6 +602,38 @@ public class APIJSONVerifier extends AbstractVerifier<Long> {
 	}
 
 
+	/**角色权限校验，读取 ACCESS_SNAPSHOT，不读 ACCESS_MAP，避免 initAccess 期间读到不完整的
+	 * @param table
+	 * @param method
+	 * @param role
+	 * @throws Exception
+	 */
+	@Override
+	public void verifyRole(String table, RequestMethod method, String role) throws Exception {
+		Map<String, Map<RequestMethod, String[]>> accessMap = ACCESS_SNAPSHOT;
+		if (accessMap == null) {  // 还没有调用 initAccess
+			super.verifyRole(table, method, role);
+			return;
+		}
+
+		Log.d(TAG, "verifyRole  table = " + table + "; method = " + method + "; role = " + role);
+		if (table != null) {
+			if (method == null) {
+				method = RequestMethod.GET;
+			}
+			if (role == null) {
+				role = UNKNOWN;
+			}
+
+			Map<RequestMethod, String[]> map = accessMap.get(table);
+			String[] roles = map == null ? null : map.get(method);
+
+			if (roles == null || Arrays.asList(roles).contains(role) == false) {
+				throw new IllegalAccessException(table + " 不允许 " + role + " 用户的 " + method.name() + " 请求！");
+			}
+		}
+	}
+
 	@Override
 	public String getIdKey(String database, String schema, String datasource, String table) {
 		return APIJSONSQLConfig.SIMPLE_CALLBACK.getIdKey(database, schema, datasource, table);
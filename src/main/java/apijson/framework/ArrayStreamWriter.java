@@ -0,0 +1,126 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package apijson.framework;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map.Entry;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+
+import apijson.NotNull;
+
+
+/**把数组查询结果一行一行直接写到输出流，不在内存中保存整个数组
+ * <br > 输出格式和 JSON.toJSONString(response) 一致，只是 arrayKey 一定在最前面：
+ * <br > { arrayKey: [ row0, row1, ... ], code: 200, msg: "success", ... }
+ * <br > 如果 arrayKey 是 Table[]，则每项为 row，否则每项为 { Table: row }
+ */
+public class ArrayStreamWriter {
+	public static final String TAG = "ArrayStreamWriter";
+
+	private final OutputStream output;
+	private final String arrayKey;
+	private final String table;
+	private final boolean wrap;
+
+	private int count;
+
+	/**
+	 * @param output
+	 * @param arrayKey 例如 Moment[] 或 []
+	 * @param table 例如 Moment
+	 */
+	public ArrayStreamWriter(@NotNull OutputStream output, @NotNull String arrayKey, @NotNull String table) {
+		this.output = output;
+		this.arrayKey = arrayKey;
+		this.table = table;
+		this.wrap = arrayKey.equals(table + apijson.JSONObject.KEY_ARRAY) == false;
+	}
+
+	public String getArrayKey() {
+		return arrayKey;
+	}
+	public String getTable() {
+		return table;
+	}
+	/**已写出的行数
+	 * @return
+	 */
+	public int getCount() {
+		return count;
+	}
+	/**是否已经开始写出，开始后就不能再改变 HTTP 状态码等
+	 * @return
+	 */
+	public boolean isStarted() {
+		return count > 0;
+	}
+
+	/**写出一行
+	 * @param row
+	 * @throws IOException
+	 */
+	public void writeRow(JSONObject row) throws IOException {
+		if (count <= 0) {
+			write("{" + JSON.toJSONString(arrayKey) + ":[");
+		}
+		else {
+			output.write(',');
+		}
+
+		if (wrap) {
+			write("{" + JSON.toJSONString(table) + ":");
+			JSON.writeJSONString(output, StandardCharsets.UTF_8, row);
+			output.write('}');
+		}
+		else {
+			JSON.writeJSONString(output, StandardCharsets.UTF_8, row);
+		}
+		count ++;
+	}
+
+	/**写出剩下的部分，结束整个 JSON
+	 * @param response Parser 返回的结果，其中的 arrayKey 会被忽略
+	 * @throws IOException
+	 */
+	public void finish(JSONObject response) throws IOException {
+		if (count <= 0) {  // 没有数据或者查询前就出错了，和非流式输出完全一致
+			JSON.writeJSONString(output, StandardCharsets.UTF_8, response);
+			output.flush();
+			return;
+		}
+
+		output.write(']');
+		if (response != null) {
+			for (Entry<String, Object> entry : response.entrySet()) {
+				if (arrayKey.equals(entry.getKey())) {
+					continue;
+				}
+				write("," + JSON.toJSONString(entry.getKey()) + ":");
+				JSON.writeJSONString(output, StandardCharsets.UTF_8, entry.getValue());
+			}
+		}
+		output.write('}');
+		output.flush();
+	}
+
+	private void write(String s) throws IOException {
+		output.write(s.getBytes(StandardCharsets.UTF_8));
+	}
+
+}
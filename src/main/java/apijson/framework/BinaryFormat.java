@@ -0,0 +1,294 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package apijson.framework;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONAware;
+import com.alibaba.fastjson.JSONObject;
+
+import apijson.JSON;
+import apijson.NotNull;
+import apijson.StringUtil;
+
+
+/**二进制编码格式，和 JSON 的数据结构一致，用于减少客户端解析和传输大量 JSON 的开销
+ * <br > 序列化的值和 fastjson 默认的一致，例如 Date 为毫秒数，但 fastjson 按原样输出的 BigDecimal 没法都用浮点数表示，
+ * 能用 double 精确表示的才为浮点数，否则 CBOR 为 tag 4 十进制小数，MessagePack 没有对应的类型，为字符串，保证不丢失精度
+ * <br > 解析出的对象为 JSONObject(有序)，数组为 JSONArray，整数为 Integer 或 Long，小数为 BigDecimal
+ */
+public abstract class BinaryFormat {
+	public static final String TAG = "BinaryFormat";
+
+	/**
+	 * 解析时字符串、二进制数据及数组、对象的最大长度，避免恶意的请求导致内存溢出
+	 */
+	public static int MAX_READ_LENGTH = 16*1024*1024;
+	/**
+	 * 解析时最大的嵌套层级
+	 */
+	public static int MAX_READ_DEPTH = 100;
+
+	public static final BinaryFormat MSGPACK;
+	public static final BinaryFormat CBOR;
+	/**
+	 * <名称或 Content-Type, BinaryFormat>
+	 */
+	public static final Map<String, BinaryFormat> FORMAT_MAP;
+	static {
+		MSGPACK = new MessagePackFormat();
+		CBOR = new CBORFormat();
+
+		FORMAT_MAP = new HashMap<>();
+		FORMAT_MAP.put(MSGPACK.getName(), MSGPACK);
+		FORMAT_MAP.put(MSGPACK.getContentType(), MSGPACK);
+		FORMAT_MAP.put("application/x-msgpack", MSGPACK);
+		FORMAT_MAP.put(CBOR.getName(), CBOR);
+		FORMAT_MAP.put(CBOR.getContentType(), CBOR);
+	}
+
+	/**通过名称或 Content-Type 获取
+	 * @param name 例如 msgpack, application/cbor; charset=UTF-8
+	 * @return 不是二进制格式则为 null
+	 */
+	public static BinaryFormat getFormat(String name) {
+		if (StringUtil.isEmpty(name, true)) {
+			return null;
+		}
+
+		int index = name.indexOf(";");
+		return FORMAT_MAP.get((index < 0 ? name : name.substring(0, index)).trim().toLowerCase());
+	}
+
+	/**按请求头 Accept 选择格式，q 最大的优先，相同则靠前的优先
+	 * @param accept 例如 application/cbor, application/json;q=0.9
+	 * @return JSON 等非二进制格式优先则为 null
+	 */
+	public static BinaryFormat getAcceptedFormat(String accept) {
+		if (StringUtil.isEmpty(accept, true)) {
+			return null;
+		}
+
+		BinaryFormat format = null;
+		double maxQ = 0;
+		for (String range : accept.split(",")) {
+			String[] params = range.split(";");
+			double q = 1;
+			for (int i = 1; i < params.length; i++) {
+				String p = params[i].trim();
+				if (p.startsWith("q=")) {
+					try {
+						q = Double.parseDouble(p.substring(2).trim());
+					}
+					catch (NumberFormatException e) {
+						q = 0;
+					}
+				}
+			}
+
+			if (q > maxQ) {
+				maxQ = q;
+				format = getFormat(params[0]);
+			}
+		}
+		return format;
+	}
+
+
+	/**
+	 * @return 名称，用于请求中的 encoding
+	 */
+	public abstract String getName();
+	/**
+	 * @return Content-Type
+	 */
+	public abstract String getContentType();
+
+	/**序列化到 output，不会关闭 output
+	 * @param output
+	 * @param value
+	 * @throws IOException
+	 */
+	public void write(@NotNull OutputStream output, Object value) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output, 8192));
+		writeValue(out, value, new KeyCache());
+		out.flush();
+	}
+
+	/**从 input 解析，不会关闭 input
+	 * @param input
+	 * @return JSONObject, JSONArray, String, Number, Boolean, byte[] 或 null
+	 * @throws IOException
+	 */
+	public Object read(@NotNull InputStream input) throws IOException {
+		return readValue(new DataInputStream(new BufferedInputStream(input, 8192)), 0);
+	}
+
+	/**从 input 解析 JSONObject
+	 * @param input
+	 * @return
+	 * @throws IOException
+	 */
+	public JSONObject readObject(@NotNull InputStream input) throws IOException {
+		Object value = read(input);
+		if (value != null && value instanceof JSONObject == false) {
+			throw new IllegalArgumentException(getName() + " 格式的请求内容必须是对象 {} ！");
+		}
+		return (JSONObject) value;
+	}
+
+	/**
+	 * @param out
+	 * @param value
+	 * @param keyCache
+	 * @throws IOException
+	 */
+	protected abstract void writeValue(@NotNull DataOutputStream out, Object value, @NotNull KeyCache keyCache) throws IOException;
+
+	/**
+	 * @param in
+	 * @param depth 当前的嵌套层级
+	 * @return
+	 * @throws IOException
+	 */
+	protected abstract Object readValue(@NotNull DataInputStream in, int depth) throws IOException;
+
+
+	/**把 fastjson 可以序列化的其它值转为 Map, Collection, Object[], String, Number, Boolean, byte[] 或 null，writeValue 中先调用
+	 * @param value
+	 * @return
+	 */
+	protected Object toBasicValue(Object value) {
+		if (value == null || value instanceof Map || value instanceof Collection || value instanceof Object[]
+				|| value instanceof String || value instanceof Number || value instanceof Boolean || value instanceof byte[]) {
+			return value;
+		}
+		if (value instanceof LazyJSON) {
+			return ((LazyJSON) value).getValue();
+		}
+		if (value instanceof JSONAware) {
+			return JSON.parse(((JSONAware) value).toJSONString());
+		}
+		if (value instanceof Date) {
+			return ((Date) value).getTime();
+		}
+		if (value instanceof Character || value instanceof Enum) {
+			return value.toString();
+		}
+		if (value instanceof Iterable) {
+			JSONArray array = new JSONArray();
+			for (Object item : (Iterable<?>) value) {
+				array.add(item);
+			}
+			return array;
+		}
+
+		Object json = com.alibaba.fastjson.JSON.toJSON(value);
+		return json == value ? value.toString() : json;
+	}
+
+	/**
+	 * @param v
+	 * @return 在 int 范围内则为 Integer，否则为 Long，和 fastjson 一致
+	 */
+	protected static Number toNumber(long v) {
+		return v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE ? (Number) (int) v : (Number) v;
+	}
+
+	/**
+	 * @param v
+	 * @return BigDecimal，和 fastjson 一致，NaN, Infinity 没法转为 BigDecimal，仍为 Double
+	 */
+	protected static Number toDecimal(double v) {
+		return Double.isNaN(v) || Double.isInfinite(v) ? (Number) v : BigDecimal.valueOf(v);
+	}
+	protected static Number toDecimal(float v) {
+		return Float.isNaN(v) || Float.isInfinite(v) ? (Number) (double) v : new BigDecimal(Float.toString(v));
+	}
+
+	/**
+	 * @param value
+	 * @return 转为 double 后再按 toDecimal 解析回来是否和原来的值相等，即序列化为浮点数不会丢失精度
+	 */
+	protected static boolean isExactDouble(@NotNull BigDecimal value) {
+		double d = value.doubleValue();
+		return Double.isInfinite(d) == false && BigDecimal.valueOf(d).compareTo(value) == 0;
+	}
+
+	protected static void checkLength(long length) throws IOException {
+		if (length < 0 || length > MAX_READ_LENGTH) {
+			throw new IOException("长度 " + length + " 超出了 0-" + MAX_READ_LENGTH + " 的范围！");
+		}
+	}
+
+	protected static void checkDepth(int depth) throws IOException {
+		if (depth > MAX_READ_DEPTH) {
+			throw new IOException("嵌套层级超过了 " + MAX_READ_DEPTH + " ！");
+		}
+	}
+
+	protected static int readUnsignedByte(@NotNull DataInputStream in) throws IOException {
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException();
+		}
+		return b;
+	}
+
+	protected static byte[] readBytes(@NotNull DataInputStream in, long length) throws IOException {
+		checkLength(length);
+		byte[] bytes = new byte[(int) length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	protected static String readString(@NotNull DataInputStream in, long length) throws IOException {
+		return new String(readBytes(in, length), StandardCharsets.UTF_8);
+	}
+
+
+	/**一次序列化中 key 的 UTF-8 编码缓存，数组中每一项的 key 基本都相同，不用每次都编码
+	 */
+	protected static class KeyCache {
+		private static final int MAX_SIZE = 1024;
+		private final Map<String, byte[]> map = new HashMap<>();
+
+		public byte[] getBytes(@NotNull String key) {
+			byte[] bytes = map.get(key);
+			if (bytes == null) {
+				bytes = key.getBytes(StandardCharsets.UTF_8);
+				if (map.size() < MAX_SIZE) {
+					map.put(key, bytes);
+				}
+			}
+			return bytes;
+		}
+	}
+
+}
@@ -0,0 +1,92 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package apijson.framework;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import apijson.NotNull;
+
+
+/**线程安全、有数量上限的缓存，读写都不加全局锁，超过上限时按放入的顺序淘汰最早的
+ * <br > 适合 SQL 模板、RowDecoder、RequestPlan 这种种类有限、命中后不会变的缓存，
+ * 比 synchronized 的 LinkedHashMap LRU 在高并发下少了锁竞争，淘汰顺序只是近似
+ * @param <K>
+ * @param <V>
+ */
+public class BoundedCache<K, V> {
+
+	private final ConcurrentHashMap<K, V> map = new ConcurrentHashMap<>();
+	/**
+	 * 按放入的顺序排列的 key，最早的在最前面
+	 */
+	private final ConcurrentLinkedQueue<K> keyQueue = new ConcurrentLinkedQueue<>();
+
+	private final int maxSize;
+
+	public BoundedCache() {
+		this(1000);
+	}
+	public BoundedCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return 最多缓存多少个，<= 0 则不缓存，可以重写来读取会变的配置
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @param key
+	 * @return 没有则为 null
+	 */
+	public V get(@NotNull K key) {
+		return map.get(key);
+	}
+
+	/**放入缓存，超过 getMaxSize 则淘汰最早放入的
+	 * @param key
+	 * @param value
+	 */
+	public void put(@NotNull K key, @NotNull V value) {
+		int max = getMaxSize();
+		if (max <= 0) {
+			return;
+		}
+
+		if (map.put(key, value) == null) {
+			keyQueue.offer(key);
+			while (map.size() > max) {
+				K eldest = keyQueue.poll();
+				if (eldest == null) {
+					break;
+				}
+				map.remove(eldest);
+			}
+		}
+	}
+
+	public int size() {
+		return map.size();
+	}
+
+	public void clear() {
+		keyQueue.clear();
+		map.clear();
+	}
+
+}
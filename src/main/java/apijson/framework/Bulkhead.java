@@ -0,0 +1,243 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package apijson.framework;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.alibaba.fastjson.JSONObject;
+
+import apijson.NotNull;
+import apijson.RequestMethod;
+
+
+/**舱壁，按 method + tag 限制同时处理的请求数，避免某个很慢的接口占满连接池而拖垮其它接口
+ * <br > 超过 maxConcurrency 的请求排队等待，最多 maxQueue 个，最多等 queueTimeout，否则直接拒绝
+ * <br > 配置由 APIJSONVerifier.initRequest 从 Request 表读取，reload 时原地更新，不影响正在处理的请求
+ */
+public class Bulkhead {
+	public static final String TAG = "Bulkhead";
+
+	/**
+	 * 请求太多被拒绝时返回的 code，对应 HTTP 429 Too Many Requests
+	 */
+	public static final int CODE_TOO_MANY_REQUESTS = 429;
+
+	/**
+	 * 是否启用舱壁
+	 */
+	public static boolean ENABLED = true;
+	/**
+	 * Request 表中没有配置 maxConcurrency 时的默认值，<= 0 则不限制
+	 */
+	public static int DEFAULT_MAX_CONCURRENCY = 0;
+	/**
+	 * Request 表中没有配置 maxQueue 时的默认值，<= 0 则不排队，超过 maxConcurrency 直接拒绝
+	 */
+	public static int DEFAULT_MAX_QUEUE = 0;
+	/**
+	 * Request 表中没有配置 queueTimeout 时的默认值，单位 ms
+	 */
+	public static long DEFAULT_QUEUE_TIMEOUT = 1000;
+
+	/**
+	 * <method + " " + tag, Bulkhead>
+	 */
+	public static final Map<String, Bulkhead> BULKHEAD_MAP = new ConcurrentHashMap<>();
+
+	/**
+	 * @param method
+	 * @param tag
+	 * @return 没有配置则为 null
+	 */
+	public static Bulkhead get(RequestMethod method, String tag) {
+		if (ENABLED == false || method == null || tag == null) {
+			return null;
+		}
+		return BULKHEAD_MAP.get(APIJSONVerifier.getCacheKeyForRequest(method.name(), tag));
+	}
+
+	/**新增或原地更新配置，已有的不会替换，正在处理和排队的请求不受影响
+	 * @param key
+	 * @param maxConcurrency
+	 * @param maxQueue
+	 * @param queueTimeout
+	 * @return
+	 */
+	public static Bulkhead put(@NotNull String key, int maxConcurrency, int maxQueue, long queueTimeout) {
+		Bulkhead bulkhead = BULKHEAD_MAP.get(key);
+		if (bulkhead == null) {
+			bulkhead = new Bulkhead(key);
+			Bulkhead old = BULKHEAD_MAP.putIfAbsent(key, bulkhead);
+			if (old != null) {
+				bulkhead = old;
+			}
+		}
+		bulkhead.setConfig(maxConcurrency, maxQueue, queueTimeout);
+		return bulkhead;
+	}
+
+	/**
+	 * @return <key, { inFlight, waiting, rejected, maxConcurrency, maxQueue, queueTimeout }>
+	 */
+	public static JSONObject getStatus() {
+		JSONObject status = new JSONObject(true);
+		for (Bulkhead bulkhead : BULKHEAD_MAP.values()) {
+			status.put(bulkhead.getKey(), bulkhead.toStatus());
+		}
+		return status;
+	}
+
+
+	private final String key;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	private volatile int maxConcurrency;
+	private volatile int maxQueue;
+	private volatile long queueTimeout;
+	private volatile int inFlight;
+	private volatile int waiting;
+
+	public Bulkhead(@NotNull String key) {
+		this.key = key;
+	}
+
+	public String getKey() {
+		return key;
+	}
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+	public int getMaxQueue() {
+		return maxQueue;
+	}
+	public long getQueueTimeout() {
+		return queueTimeout;
+	}
+
+	/**
+	 * @return 正在处理的请求数
+	 */
+	public int getInFlight() {
+		return inFlight;
+	}
+	/**
+	 * @return 正在排队的请求数
+	 */
+	public int getWaiting() {
+		return waiting;
+	}
+	/**
+	 * @return 被拒绝的请求总数
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	public void setConfig(int maxConcurrency, int maxQueue, long queueTimeout) {
+		lock.lock();
+		try {
+			this.maxConcurrency = maxConcurrency;
+			this.maxQueue = maxQueue;
+			this.queueTimeout = queueTimeout;
+			available.signalAll();  // 上限调大了则排队的可以马上处理
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**获取处理的许可，成功后必须调用 release
+	 * @param maxWait 最多排队等待的时间，和 queueTimeout 取小的，单位 ms
+	 * @return 是否获取成功，失败则应该直接拒绝请求
+	 */
+	public boolean acquire(long maxWait) {
+		lock.lock();
+		try {
+			if (isFull() == false) {
+				inFlight++;
+				return true;
+			}
+
+			long timeout = maxWait > 0 ? Math.min(maxWait, queueTimeout) : queueTimeout;
+			if (waiting >= maxQueue || timeout <= 0) {
+				rejectedCount.incrementAndGet();
+				return false;
+			}
+
+			waiting++;
+			try {
+				long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+				while (isFull()) {
+					if (nanos <= 0) {
+						rejectedCount.incrementAndGet();
+						return false;
+					}
+					nanos = available.awaitNanos(nanos);
+				}
+				inFlight++;
+				return true;
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				rejectedCount.incrementAndGet();
+				return false;
+			}
+			finally {
+				waiting--;
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**释放 acquire 获取的许可
+	 */
+	public void release() {
+		lock.lock();
+		try {
+			if (inFlight > 0) {
+				inFlight--;
+			}
+			available.signal();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean isFull() {
+		return maxConcurrency > 0 && inFlight >= maxConcurrency;
+	}
+
+	public JSONObject toStatus() {
+		JSONObject status = new JSONObject(true);
+		status.put("inFlight", inFlight);
+		status.put("waiting", waiting);
+		status.put("rejected", rejectedCount.get());
+		status.put("maxConcurrency", maxConcurrency);
+		status.put("maxQueue", maxQueue);
+		status.put("queueTimeout", queueTimeout);
+		return status;
+	}
+
+}
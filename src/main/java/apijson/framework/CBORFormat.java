@@ -0,0 +1,362 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package apijson.framework;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import apijson.NotNull;
+
+
+/**CBOR 格式，见 RFC 8949
+ * <br > 序列化时都用确定长度，解析时也支持不定长度；标签只支持 2, 3 大整数，其它标签忽略，直接取里面的值
+ */
+public class CBORFormat extends BinaryFormat {
+
+	private static final int MAJOR_UNSIGNED = 0;
+	private static final int MAJOR_NEGATIVE = 1;
+	private static final int MAJOR_BYTES = 2;
+	private static final int MAJOR_TEXT = 3;
+	private static final int MAJOR_ARRAY = 4;
+	private static final int MAJOR_MAP = 5;
+	private static final int MAJOR_TAG = 6;
+	private static final int MAJOR_SIMPLE = 7;
+
+	/**
+	 * 不定长度的结束标记
+	 */
+	private static final Object BREAK = new Object();
+
+	@Override
+	public String getName() {
+		return "cbor";
+	}
+	@Override
+	public String getContentType() {
+		return "application/cbor";
+	}
+
+
+	@Override
+	protected void writeValue(@NotNull DataOutputStream out, Object value, @NotNull KeyCache keyCache) throws IOException {
+		value = toBasicValue(value);
+
+		if (value == null) {
+			out.write(0xf6);
+		}
+		else if (value instanceof String) {
+			byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+			writeHeader(out, MAJOR_TEXT, bytes.length);
+			out.write(bytes);
+		}
+		else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+			long v = ((Number) value).longValue();
+			if (v >= 0) {
+				writeHeader(out, MAJOR_UNSIGNED, v);
+			}
+			else {
+				writeHeader(out, MAJOR_NEGATIVE, -1 - v);
+			}
+		}
+		else if (value instanceof Boolean) {
+			out.write((Boolean) value ? 0xf5 : 0xf4);
+		}
+		else if (value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			writeHeader(out, MAJOR_MAP, map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				byte[] bytes = keyCache.getBytes(String.valueOf(entry.getKey()));
+				writeHeader(out, MAJOR_TEXT, bytes.length);
+				out.write(bytes);
+				writeValue(out, entry.getValue(), keyCache);
+			}
+		}
+		else if (value instanceof Collection) {
+			Collection<?> collection = (Collection<?>) value;
+			writeHeader(out, MAJOR_ARRAY, collection.size());
+			for (Object item : collection) {
+				writeValue(out, item, keyCache);
+			}
+		}
+		else if (value instanceof Object[]) {
+			Object[] array = (Object[]) value;
+			writeHeader(out, MAJOR_ARRAY, array.length);
+			for (Object item : array) {
+				writeValue(out, item, keyCache);
+			}
+		}
+		else if (value instanceof BigInteger) {
+			BigInteger bi = (BigInteger) value;
+			if (bi.bitLength() <= 63) {
+				writeValue(out, bi.longValue(), keyCache);
+			}
+			else {  // 2: 正大整数，3: 负大整数，值为 -1 - n
+				boolean negative = bi.signum() < 0;
+				byte[] bytes = (negative ? bi.negate().subtract(BigInteger.ONE) : bi).toByteArray();
+				int offset = bytes.length > 1 && bytes[0] == 0 ? 1 : 0;
+				writeHeader(out, MAJOR_TAG, negative ? 3 : 2);
+				writeHeader(out, MAJOR_BYTES, bytes.length - offset);
+				out.write(bytes, offset, bytes.length - offset);
+			}
+		}
+		else if (value instanceof Float) {
+			out.write(0xfa);
+			out.writeFloat((Float) value);
+		}
+		else if (value instanceof BigDecimal && isExactDouble((BigDecimal) value) == false) {  // 4: 十进制小数 [指数, 尾数]，值为 尾数*10^指数
+			BigDecimal bd = (BigDecimal) value;
+			writeHeader(out, MAJOR_TAG, 4);
+			writeHeader(out, MAJOR_ARRAY, 2);
+			writeValue(out, -bd.scale(), keyCache);
+			writeValue(out, bd.unscaledValue(), keyCache);
+		}
+		else if (value instanceof Number) {  // Double, 能精确表示的 BigDecimal 等
+			out.write(0xfb);
+			out.writeDouble(((Number) value).doubleValue());
+		}
+		else if (value instanceof byte[]) {
+			byte[] bytes = (byte[]) value;
+			writeHeader(out, MAJOR_BYTES, bytes.length);
+			out.write(bytes);
+		}
+		else {
+			writeValue(out, value.toString(), keyCache);
+		}
+	}
+
+	/**用最短的方式写入类型和长度(或整数值)
+	 * @param out
+	 * @param major
+	 * @param v 无符号
+	 * @throws IOException
+	 */
+	private static void writeHeader(@NotNull DataOutputStream out, int major, long v) throws IOException {
+		int prefix = major << 5;
+		if (v >= 0 && v < 24) {
+			out.write(prefix | (int) v);
+		}
+		else if (v >= 0 && v < 0x100) {
+			out.write(prefix | 24);
+			out.write((int) v);
+		}
+		else if (v >= 0 && v < 0x10000) {
+			out.write(prefix | 25);
+			out.writeShort((int) v);
+		}
+		else if (v >= 0 && v < 0x100000000L) {
+			out.write(prefix | 26);
+			out.writeInt((int) v);
+		}
+		else {
+			out.write(prefix | 27);
+			out.writeLong(v);
+		}
+	}
+
+
+	@Override
+	protected Object readValue(@NotNull DataInputStream in, int depth) throws IOException {
+		Object value = readItem(in, depth);
+		if (value == BREAK) {
+			throw new IOException("CBOR 格式错误，不定长度的结束标记 0xff 位置不对！");
+		}
+		return value;
+	}
+
+	/**
+	 * @param in
+	 * @param depth
+	 * @return 可能为 BREAK
+	 * @throws IOException
+	 */
+	private Object readItem(@NotNull DataInputStream in, int depth) throws IOException {
+		int b = readUnsignedByte(in);
+		int major = b >>> 5;
+		int info = b & 0x1f;
+
+		if (major == MAJOR_SIMPLE) {
+			switch (info) {
+			case 20:
+				return false;
+			case 21:
+				return true;
+			case 22:
+			case 23:  // undefined
+				return null;
+			case 25:
+				return toDecimal(toFloat(in.readUnsignedShort()));
+			case 26:
+				return toDecimal(in.readFloat());
+			case 27:
+				return toDecimal(in.readDouble());
+			case 31:
+				return BREAK;
+			default:
+				throw new IOException("不支持的 CBOR 简单值 " + info + " ！");
+			}
+		}
+
+		if (info == 31) {  // 不定长度
+			switch (major) {
+			case MAJOR_BYTES:
+			case MAJOR_TEXT:
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				while (true) {
+					Object chunk = readItem(in, depth + 1);
+					if (chunk == BREAK) {
+						break;
+					}
+					byte[] bs = chunk instanceof byte[] ? (byte[]) chunk : (chunk instanceof String ? ((String) chunk).getBytes(StandardCharsets.UTF_8) : null);
+					if (bs == null) {
+						throw new IOException("CBOR 格式错误，不定长度的字符串中只能有字符串！");
+					}
+					checkLength(bytes.size() + (long) bs.length);
+					bytes.write(bs);
+				}
+				return major == MAJOR_BYTES ? bytes.toByteArray() : new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+			case MAJOR_ARRAY:
+				checkDepth(depth + 1);
+				JSONArray array = new JSONArray();
+				while (true) {
+					Object item = readItem(in, depth + 1);
+					if (item == BREAK) {
+						return array;
+					}
+					checkLength(array.size() + 1);
+					array.add(item);
+				}
+			case MAJOR_MAP:
+				checkDepth(depth + 1);
+				JSONObject object = new JSONObject(true);
+				while (true) {
+					Object key = readItem(in, depth + 1);
+					if (key == BREAK) {
+						return object;
+					}
+					checkLength(object.size() + 1);
+					object.put(key == null ? null : key.toString(), readValue(in, depth + 1));
+				}
+			default:
+				throw new IOException("CBOR 格式错误，类型 " + major + " 不能是不定长度！");
+			}
+		}
+
+		long v = readArgument(in, info);
+		switch (major) {
+		case MAJOR_UNSIGNED:
+			return v >= 0 ? toNumber(v) : new BigInteger(Long.toUnsignedString(v));
+		case MAJOR_NEGATIVE:
+			return v >= 0 ? toNumber(-1 - v) : new BigInteger(Long.toUnsignedString(v)).negate().subtract(BigInteger.ONE);
+		case MAJOR_BYTES:
+			return readBytes(in, v);
+		case MAJOR_TEXT:
+			return readString(in, v);
+		case MAJOR_ARRAY:
+			checkLength(v);
+			checkDepth(depth + 1);
+			JSONArray array = new JSONArray((int) Math.min(v, 1024));
+			for (long i = 0; i < v; i++) {
+				array.add(readValue(in, depth + 1));
+			}
+			return array;
+		case MAJOR_MAP:
+			checkLength(v);
+			checkDepth(depth + 1);
+			JSONObject object = new JSONObject(true);
+			for (long i = 0; i < v; i++) {
+				Object key = readValue(in, depth + 1);
+				object.put(key == null ? null : key.toString(), readValue(in, depth + 1));
+			}
+			return object;
+		default:  // MAJOR_TAG
+			checkDepth(depth + 1);
+			Object tagged = readValue(in, depth + 1);
+			if ((v == 2 || v == 3) && tagged instanceof byte[]) {
+				BigInteger bi = new BigInteger(1, (byte[]) tagged);
+				return v == 2 ? bi : bi.negate().subtract(BigInteger.ONE);
+			}
+			if (v == 4 && tagged instanceof List && ((List<?>) tagged).size() == 2) {
+				List<?> list = (List<?>) tagged;
+				Object exponent = list.get(0);
+				Object mantissa = list.get(1);
+				if ((exponent instanceof Integer || exponent instanceof Long)
+						&& (mantissa instanceof Integer || mantissa instanceof Long || mantissa instanceof BigInteger)) {
+					long e = ((Number) exponent).longValue();
+					if (e >= Integer.MIN_VALUE + 1 && e <= Integer.MAX_VALUE) {
+						BigInteger m = mantissa instanceof BigInteger ? (BigInteger) mantissa : BigInteger.valueOf(((Number) mantissa).longValue());
+						return new BigDecimal(m, (int) -e);
+					}
+				}
+			}
+			return tagged;
+		}
+	}
+
+	/**
+	 * @param in
+	 * @param info
+	 * @return 无符号，超过 Long.MAX_VALUE 的为负数
+	 * @throws IOException
+	 */
+	private static long readArgument(@NotNull DataInputStream in, int info) throws IOException {
+		if (info < 24) {
+			return info;
+		}
+		switch (info) {
+		case 24:
+			return in.readUnsignedByte();
+		case 25:
+			return in.readUnsignedShort();
+		case 26:
+			return in.readInt() & 0xffffffffL;
+		case 27:
+			return in.readLong();
+		default:
+			throw new IOException("CBOR 格式错误，不支持的长度标记 " + info + " ！");
+		}
+	}
+
+	/**半精度浮点数转为 float
+	 * @param half
+	 * @return
+	 */
+	private static float toFloat(int half) {
+		int exp = (half >> 10) & 0x1f;
+		int mant = half & 0x3ff;
+		float value;
+		if (exp == 0) {
+			value = mant * (float) Math.pow(2, -24);
+		}
+		else if (exp == 31) {
+			value = mant == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+		}
+		else {
+			value = (mant + 1024) * (float) Math.pow(2, exp - 25);
+		}
+		return (half & 0x8000) == 0 ? value : -value;
+	}
+
+}
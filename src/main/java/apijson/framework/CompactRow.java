@@ -0,0 +1,262 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package apijson.framework;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import apijson.NotNull;
+
+
+/**紧凑的一行查询结果，列名由同一条 SQL 的所有行共用，每行只保存值的数组，
+ * 比每行一个 LinkedHashMap 少很多对象，宽表的内存占用小很多
+ * <br > 用 new JSONObject(row) 包装后和普通的 JSONObject 一样使用，序列化时直接遍历数组，
+ * 增加的不是列名的 key 放在 extraMap 中，排在所有列后面
+ */
+public class CompactRow extends AbstractMap<String, Object> {
+
+	/**
+	 * 不存在的值，和 null 值区分开
+	 */
+	private static final Object ABSENT = new Object();
+
+	private final RowDecoder decoder;
+	private final Object[] values;
+	private Map<String, Object> extraMap;
+	private int size;
+
+	public CompactRow(@NotNull RowDecoder decoder) {
+		this.decoder = decoder;
+		this.values = new Object[decoder.getColumns().length];
+		Arrays.fill(values, ABSENT);
+	}
+
+	/**把一行 key-value 转为 CompactRow
+	 * @param decoder
+	 * @param map
+	 * @return
+	 */
+	public static CompactRow valueOf(@NotNull RowDecoder decoder, @NotNull Map<String, Object> map) {
+		CompactRow row = new CompactRow(decoder);
+		for (Map.Entry<String, Object> entry : map.entrySet()) {
+			row.put(entry.getKey(), entry.getValue());
+		}
+		return row;
+	}
+
+	public RowDecoder getDecoder() {
+		return decoder;
+	}
+
+	/**
+	 * @return 是否 decoder.getColumns() 中的每一列都有值，且没有其它的 key
+	 */
+	public boolean isFull() {
+		return size == values.length && (extraMap == null || extraMap.isEmpty());
+	}
+
+	/**
+	 * @return 是否有 decoder.getColumns() 以外的 key
+	 */
+	public boolean hasExtra() {
+		return extraMap != null && extraMap.isEmpty() == false;
+	}
+
+	/**
+	 * @return 按 decoder.getColumns() 的顺序排列的值，不存在的为 null
+	 */
+	public List<Object> getValueList() {
+		List<Object> list = new ArrayList<>(Arrays.asList(values));
+		if (size < values.length) {
+			for (int i = 0; i < values.length; i++) {
+				if (list.get(i) == ABSENT) {
+					list.set(i, null);
+				}
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public int size() {
+		return size + (extraMap == null ? 0 : extraMap.size());
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		int slot = decoder.getSlot(key);
+		return slot >= 0 ? values[slot] != ABSENT : extraMap != null && extraMap.containsKey(key);
+	}
+
+	@Override
+	public Object get(Object key) {
+		int slot = decoder.getSlot(key);
+		if (slot >= 0) {
+			Object value = values[slot];
+			return value == ABSENT ? null : value;
+		}
+		return extraMap == null ? null : extraMap.get(key);
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		int slot = decoder.getSlot(key);
+		if (slot < 0) {
+			if (extraMap == null) {
+				extraMap = new LinkedHashMap<>();
+			}
+			return extraMap.put(key, value);
+		}
+
+		Object old = values[slot];
+		values[slot] = value;
+		if (old == ABSENT) {
+			size ++;
+			return null;
+		}
+		return old;
+	}
+
+	@Override
+	public Object remove(Object key) {
+		int slot = decoder.getSlot(key);
+		if (slot < 0) {
+			return extraMap == null ? null : extraMap.remove(key);
+		}
+
+		Object old = values[slot];
+		if (old == ABSENT) {
+			return null;
+		}
+		values[slot] = ABSENT;
+		size --;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(values, ABSENT);
+		size = 0;
+		extraMap = null;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Object>>() {
+
+			@Override
+			public int size() {
+				return CompactRow.this.size();
+			}
+
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				return new EntryIterator();
+			}
+		};
+	}
+
+
+	private class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+		private int next = -1;  // 下一个值在 values 中的位置
+		private int last = -1;  // 上一个返回的值在 values 中的位置
+		private Iterator<Map.Entry<String, Object>> extraIterator;
+		private boolean isExtra;
+
+		EntryIterator() {
+			advance();
+		}
+
+		private void advance() {
+			do {
+				next ++;
+			}
+			while (next < values.length && values[next] == ABSENT);
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next < values.length) {
+				return true;
+			}
+			if (extraIterator == null && extraMap != null) {
+				extraIterator = extraMap.entrySet().iterator();
+			}
+			return extraIterator != null && extraIterator.hasNext();
+		}
+
+		@Override
+		public Map.Entry<String, Object> next() {
+			if (next < values.length) {
+				final int slot = next;
+				last = slot;
+				isExtra = false;
+				advance();
+
+				return new Map.Entry<String, Object>() {
+
+					@Override
+					public String getKey() {
+						return decoder.getColumns()[slot];
+					}
+
+					@Override
+					public Object getValue() {
+						Object value = values[slot];
+						return value == ABSENT ? null : value;
+					}
+
+					@Override
+					public Object setValue(Object value) {
+						Object old = getValue();
+						if (values[slot] == ABSENT) {
+							size ++;
+						}
+						values[slot] = value;
+						return old;
+					}
+				};
+			}
+
+			if (hasNext() == false) {
+				throw new NoSuchElementException();
+			}
+			isExtra = true;
+			return extraIterator.next();
+		}
+
+		@Override
+		public void remove() {
+			if (isExtra) {
+				extraIterator.remove();
+				return;
+			}
+			if (last < 0 || values[last] == ABSENT) {
+				throw new IllegalStateException();
+			}
+			values[last] = ABSENT;
+			size --;
+		}
+	}
+
+}
@@ -0,0 +1,480 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package apijson.framework;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import apijson.Log;
+import apijson.NotNull;
+import apijson.orm.SQLConfig;
+
+
+/**数据库连接池，按 database + uri + account 分组，每组最多 maxSize 个连接
+ * <br > 借出时只对空闲超过 validateIdleTime 的连接做 isValid 校验，等待超过 maxWait 直接抛 SQLTimeoutException
+ * <br > 后台定时回收空闲超过 maxIdleTime 或存活超过 maxLifeTime 的连接
+ */
+public class ConnectionPool {
+	public static final String TAG = "ConnectionPool";
+
+	private int maxSize = 20;
+	private long maxWait = 5000;
+	private long validateIdleTime = 5000;
+	private int validateTimeout = 2;
+	private long maxIdleTime = 10*60*1000;
+	private long maxLifeTime = 30*60*1000;
+	private long evictInterval = 30*1000;
+	private int statementCacheSize = 100;
+
+	/**每组最大连接数
+	 * @return
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+	public ConnectionPool setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		return this;
+	}
+	/**借出连接时最长等待时间，单位 ms
+	 * @return
+	 */
+	public long getMaxWait() {
+		return maxWait;
+	}
+	public ConnectionPool setMaxWait(long maxWait) {
+		this.maxWait = maxWait;
+		return this;
+	}
+	/**空闲超过这个时间的连接在借出前要校验，单位 ms，<= 0 则每次借出都校验
+	 * @return
+	 */
+	public long getValidateIdleTime() {
+		return validateIdleTime;
+	}
+	public ConnectionPool setValidateIdleTime(long validateIdleTime) {
+		this.validateIdleTime = validateIdleTime;
+		return this;
+	}
+	/**Connection.isValid 的超时时间，单位 s
+	 * @return
+	 */
+	public int getValidateTimeout() {
+		return validateTimeout;
+	}
+	public ConnectionPool setValidateTimeout(int validateTimeout) {
+		this.validateTimeout = validateTimeout;
+		return this;
+	}
+	/**连接最长空闲时间，超过则被回收，单位 ms
+	 * @return
+	 */
+	public long getMaxIdleTime() {
+		return maxIdleTime;
+	}
+	public ConnectionPool setMaxIdleTime(long maxIdleTime) {
+		this.maxIdleTime = maxIdleTime;
+		return this;
+	}
+	/**连接最长存活时间，超过则在归还或回收时关闭，单位 ms，<= 0 则不限
+	 * @return
+	 */
+	public long getMaxLifeTime() {
+		return maxLifeTime;
+	}
+	public ConnectionPool setMaxLifeTime(long maxLifeTime) {
+		this.maxLifeTime = maxLifeTime;
+		return this;
+	}
+	/**回收空闲连接的间隔时间，单位 ms，必须在第一次借出连接前设置
+	 * @return
+	 */
+	public long getEvictInterval() {
+		return evictInterval;
+	}
+	public ConnectionPool setEvictInterval(long evictInterval) {
+		this.evictInterval = evictInterval;
+		return this;
+	}
+	/**每个连接最多缓存的 PreparedStatement 数量，<= 0 则不缓存，只对之后新建的连接生效
+	 * @return
+	 */
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+	public ConnectionPool setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+		return this;
+	}
+
+
+	/**
+	 * 已借出的连接，归还时用来找到所属的组
+	 */
+	private final Map<Connection, PooledConnection> borrowedMap = new ConcurrentHashMap<>();
+	/**
+	 * <database|uri|account, Pool>
+	 */
+	private final Map<String, Pool> poolMap = new ConcurrentHashMap<>();
+
+	private ScheduledExecutorService evictor;
+	private volatile boolean closed;
+
+	/**借出连接
+	 * @param config
+	 * @return
+	 * @throws SQLException
+	 */
+	@NotNull
+	public Connection getConnection(@NotNull SQLConfig config) throws SQLException {
+		return getConnection(config.getDatabase(), config.getDBUri(), config.getDBAccount(), config.getDBPassword());
+	}
+	/**借出连接
+	 * @param database
+	 * @param uri
+	 * @param account
+	 * @param password
+	 * @return
+	 * @throws SQLException
+	 */
+	@NotNull
+	public Connection getConnection(String database, String uri, String account, String password) throws SQLException {
+		if (closed) {
+			throw new SQLException("连接池已关闭！");
+		}
+
+		Pool pool = getPool(database, uri, account);
+
+		long startTime = System.currentTimeMillis();
+		boolean acquired;
+		try {
+			acquired = pool.semaphore.tryAcquire(maxWait, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("获取数据库连接被中断！", e);
+		}
+
+		long waitTime = System.currentTimeMillis() - startTime;
+		pool.waitTime.addAndGet(waitTime);
+
+		if (acquired == false) {
+			pool.timeoutCount.incrementAndGet();
+			throw new SQLTimeoutException("获取数据库连接超时！已等待 " + waitTime + " ms，database = " + database
+					+ " 的连接池已达上限 maxSize = " + maxSize + " ！");
+		}
+
+		try {
+			PooledConnection item;
+			while ((item = pool.idleDeque.pollFirst()) != null) {  // 后进先出，优先用刚归还的连接
+				if (isUsable(pool, item)) {
+					break;
+				}
+				pool.destroy(item);
+			}
+
+			if (item == null) {
+				item = pool.create(uri, account, password, statementCacheSize);
+			}
+
+			borrowedMap.put(item.connection, item);
+			pool.borrowCount.incrementAndGet();
+			return item.connection;
+		}
+		catch (SQLException | RuntimeException e) {
+			pool.semaphore.release();
+			throw e;
+		}
+	}
+
+	/**归还连接
+	 * @param connection
+	 * @return 是否为这个连接池借出的连接，不是则不处理
+	 */
+	public boolean release(Connection connection) {
+		PooledConnection item = connection == null ? null : borrowedMap.remove(connection);
+		if (item == null) {
+			return false;
+		}
+
+		Pool pool = item.pool;
+		try {
+			if (closed || connection.isClosed() || isExpired(item, System.currentTimeMillis())) {
+				pool.destroy(item);
+			}
+			else {
+				// 还原到借出前的状态，避免未提交的事务和事务等级等影响下一次使用
+				if (connection.getAutoCommit() == false) {
+					connection.rollback();
+					connection.setAutoCommit(true);
+				}
+				if (connection.getTransactionIsolation() != item.transactionIsolation) {
+					connection.setTransactionIsolation(item.transactionIsolation);
+				}
+
+				item.lastUsedTime = System.currentTimeMillis();
+				pool.idleDeque.offerFirst(item);
+			}
+		}
+		catch (SQLException e) {
+			Log.e(TAG, "release  catch (SQLException e) >> pool.destroy(item); \n" + e.getMessage());
+			pool.destroy(item);
+		}
+		finally {
+			pool.semaphore.release();
+		}
+
+		return true;
+	}
+
+	/**获取借出的连接对应的 PreparedStatement 缓存
+	 * @param connection
+	 * @return 不是这个连接池借出的连接或者不缓存则返回 null
+	 */
+	public StatementCache getStatementCache(Connection connection) {
+		PooledConnection item = connection == null ? null : borrowedMap.get(connection);
+		return item == null ? null : item.statementCache;
+	}
+
+	/**关闭连接池，关闭所有空闲连接，已借出的连接会在归还时关闭
+	 */
+	public synchronized void close() {
+		closed = true;
+		if (evictor != null) {
+			evictor.shutdownNow();
+			evictor = null;
+		}
+
+		for (Pool pool : poolMap.values()) {
+			PooledConnection item;
+			while ((item = pool.idleDeque.pollFirst()) != null) {
+				pool.destroy(item);
+			}
+		}
+	}
+
+	/**回收空闲超过 maxIdleTime 或存活超过 maxLifeTime 的连接
+	 */
+	public void evict() {
+		long now = System.currentTimeMillis();
+		for (Pool pool : poolMap.values()) {
+			Iterator<PooledConnection> iterator = pool.idleDeque.iterator();
+			while (iterator.hasNext()) {
+				PooledConnection item = iterator.next();
+				boolean evict = (maxIdleTime > 0 && now - item.lastUsedTime > maxIdleTime) || isExpired(item, now);
+				if (evict && pool.idleDeque.removeFirstOccurrence(item)) {  // 可能同时被借出，只回收自己移除成功的
+					pool.evictCount.incrementAndGet();
+					pool.destroy(item);
+				}
+			}
+		}
+	}
+
+	/**连接池统计
+	 * @return [{ database, uri, maxSize, active, idle, created, destroyed, evicted, borrowed, waitTimeout, validateFailed, avgWaitTime, statementHit, statementMiss }]
+	 */
+	public JSONArray getStats() {
+		JSONArray stats = new JSONArray();
+		for (Pool pool : poolMap.values()) {
+			long borrowed = pool.borrowCount.get();
+
+			JSONObject stat = new JSONObject(true);
+			stat.put("database", pool.database);
+			stat.put("uri", pool.uri);
+			stat.put("maxSize", pool.maxSize);
+			stat.put("active", pool.maxSize - pool.semaphore.availablePermits());
+			stat.put("idle", pool.idleDeque.size());
+			stat.put("created", pool.createCount.get());
+			stat.put("destroyed", pool.destroyCount.get());
+			stat.put("evicted", pool.evictCount.get());
+			stat.put("borrowed", borrowed);
+			stat.put("waitTimeout", pool.timeoutCount.get());
+			stat.put("validateFailed", pool.validateFailCount.get());
+			stat.put("avgWaitTime", borrowed <= 0 ? 0 : pool.waitTime.get()/borrowed);
+			stat.put("statementHit", pool.statementHitCount.get());
+			stat.put("statementMiss", pool.statementMissCount.get());
+			stats.add(stat);
+		}
+		return stats;
+	}
+
+
+	protected boolean isUsable(Pool pool, PooledConnection item) {
+		long now = System.currentTimeMillis();
+		if (isExpired(item, now)) {
+			return false;
+		}
+
+		try {
+			if (item.connection.isClosed()) {
+				return false;
+			}
+			if (now - item.lastUsedTime < validateIdleTime) {  // 刚用过的连接基本可用，不浪费一次网络往返
+				return true;
+			}
+			if (item.connection.isValid(validateTimeout)) {
+				return true;
+			}
+		}
+		catch (SQLException e) {
+			Log.e(TAG, "isUsable  catch (SQLException e) >> return false; \n" + e.getMessage());
+		}
+
+		pool.validateFailCount.incrementAndGet();
+		return false;
+	}
+
+	protected boolean isExpired(PooledConnection item, long now) {
+		return maxLifeTime > 0 && now - item.createTime > maxLifeTime;
+	}
+
+	private Pool getPool(String database, String uri, String account) {
+		String key = database + "|" + uri + "|" + account;
+		Pool pool = poolMap.get(key);
+		if (pool == null) {
+			synchronized (this) {
+				pool = poolMap.get(key);
+				if (pool == null) {
+					pool = new Pool(database, uri, maxSize);
+					poolMap.put(key, pool);
+					startEvictor();
+				}
+			}
+		}
+		return pool;
+	}
+
+	private void startEvictor() {
+		if (evictor != null || evictInterval <= 0) {
+			return;
+		}
+
+		evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, TAG + "-evictor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		evictor.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					evict();
+				}
+				catch (Throwable e) {
+					e.printStackTrace();
+				}
+			}
+		}, evictInterval, evictInterval, TimeUnit.MILLISECONDS);
+	}
+
+
+	/**连接池中的连接
+	 */
+	protected static class PooledConnection {
+		final Pool pool;
+		final Connection connection;
+		final long createTime;
+		final int transactionIsolation;
+		final StatementCache statementCache;
+		volatile long lastUsedTime;
+
+		PooledConnection(Pool pool, Connection connection, int statementCacheSize) throws SQLException {
+			this.pool = pool;
+			this.connection = connection;
+			this.statementCache = statementCacheSize <= 0 ? null
+					: new StatementCache(statementCacheSize, pool.statementHitCount, pool.statementMissCount);
+			this.createTime = System.currentTimeMillis();
+			this.lastUsedTime = createTime;
+			this.transactionIsolation = connection.getTransactionIsolation();
+		}
+	}
+
+	/**同一个 database + uri + account 的一组连接
+	 */
+	protected static class Pool {
+		final String database;
+		final String uri;
+		final int maxSize;
+		final Semaphore semaphore;
+		final Deque<PooledConnection> idleDeque = new ConcurrentLinkedDeque<>();
+
+		final AtomicLong createCount = new AtomicLong();
+		final AtomicLong destroyCount = new AtomicLong();
+		final AtomicLong evictCount = new AtomicLong();
+		final AtomicLong borrowCount = new AtomicLong();
+		final AtomicLong timeoutCount = new AtomicLong();
+		final AtomicLong validateFailCount = new AtomicLong();
+		final AtomicLong waitTime = new AtomicLong();
+		final AtomicLong statementHitCount = new AtomicLong();
+		final AtomicLong statementMissCount = new AtomicLong();
+
+		Pool(String database, String uri, int maxSize) {
+			this.database = database;
+			this.uri = uri;
+			this.maxSize = maxSize;
+			this.semaphore = new Semaphore(maxSize, true);
+		}
+
+		PooledConnection create(String uri, String account, String password, int statementCacheSize) throws SQLException {
+			Log.i(TAG, "create  database = " + database + "; uri = " + uri);
+			// PostgreSQL 不允许 cross-database
+			Connection connection = DriverManager.getConnection(uri, account, password);
+			try {
+				PooledConnection item = new PooledConnection(this, connection, statementCacheSize);
+				createCount.incrementAndGet();
+				return item;
+			}
+			catch (SQLException e) {
+				connection.close();
+				throw e;
+			}
+		}
+
+		void destroy(PooledConnection item) {
+			destroyCount.incrementAndGet();
+			if (item.statementCache != null) {
+				item.statementCache.clear();
+			}
+			try {
+				item.connection.close();
+			}
+			catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+}
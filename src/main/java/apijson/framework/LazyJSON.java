@@ -0,0 +1,103 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package apijson.framework;
+
+import java.util.Map;
+
+import com.alibaba.fastjson.JSONAware;
+import com.alibaba.fastjson.JSONObject;
+
+import apijson.JSON;
+
+
+/**延迟解析的 JSON 值，例如 PostgreSQL 的 jsonb 字段
+ * <br > 序列化时直接输出原始的 JSON 字符串，只有引用赋值、远程函数等需要取里面的值时才通过 getValue 解析
+ */
+public class LazyJSON implements JSONAware {
+
+	private final String json;
+	private Object value;
+	private boolean parsed;
+
+	public LazyJSON(String json) {
+		this.json = json;
+	}
+
+	/**
+	 * @param json
+	 * @return json 为 null 则返回 null
+	 */
+	public static LazyJSON valueOf(String json) {
+		return json == null ? null : new LazyJSON(json);
+	}
+
+	/**获取解析后的值，只解析一次
+	 * @return JSONObject, JSONArray, String, Number, Boolean 或 null
+	 */
+	public synchronized Object getValue() {
+		if (parsed == false) {
+			value = JSON.parse(json);
+			parsed = true;
+		}
+		return value;
+	}
+
+	/**如果是 LazyJSON 则解析，否则原样返回
+	 * @param obj
+	 * @return
+	 */
+	public static Object parse(Object obj) {
+		return obj instanceof LazyJSON ? ((LazyJSON) obj).getValue() : obj;
+	}
+
+	/**把 object 中的 LazyJSON 值替换为解析后的值，只处理第一层
+	 * @param object
+	 * @return
+	 */
+	public static JSONObject parseValues(JSONObject object) {
+		if (object == null) {
+			return null;
+		}
+
+		for (Map.Entry<String, Object> entry : object.entrySet()) {
+			Object value = entry.getValue();
+			if (value instanceof LazyJSON) {
+				entry.setValue(((LazyJSON) value).getValue());
+			}
+		}
+		return object;
+	}
+
+	@Override
+	public String toJSONString() {
+		return json;
+	}
+
+	@Override
+	public String toString() {
+		return json;
+	}
+
+	@Override
+	public int hashCode() {
+		return json.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof LazyJSON && json.equals(((LazyJSON) obj).json);
+	}
+
+}
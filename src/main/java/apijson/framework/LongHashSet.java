@@ -0,0 +1,110 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package apijson.framework;
+
+
+/**long 的哈希集合，开放寻址，不装箱，用于大量 id 的去重
+ * <br > 目前只用于 @ APP JOIN 中去重主表关联的值，即副表 IN 中的值，见 APIJSONSQLExecutor.getTargetValueList
+ * <br > 非线程安全
+ */
+public class LongHashSet {
+
+	private long[] keys;
+	private boolean hasZero;  // 0 用来表示空位，单独记录
+	private int size;
+	private int mask;
+
+	public LongHashSet() {
+		this(16);
+	}
+	/**
+	 * @param expectedSize 预计的数量
+	 */
+	public LongHashSet(int expectedSize) {
+		int capacity = 16;
+		while (capacity < 2L*expectedSize && capacity < (1 << 30)) {
+			capacity <<= 1;
+		}
+		keys = new long[capacity];
+		mask = capacity - 1;
+	}
+
+	public int size() {
+		return size;
+	}
+	public boolean isEmpty() {
+		return size <= 0;
+	}
+
+	/**
+	 * @param key
+	 * @return 之前不存在则返回 true
+	 */
+	public boolean add(long key) {
+		if (key == 0) {
+			if (hasZero) {
+				return false;
+			}
+			hasZero = true;
+			size ++;
+			return true;
+		}
+
+		int index = indexOf(key);
+		if (keys[index] == key) {
+			return false;
+		}
+
+		keys[index] = key;
+		size ++;
+		if (2*size > keys.length) {
+			rehash(keys.length << 1);
+		}
+		return true;
+	}
+
+	public boolean contains(long key) {
+		return key == 0 ? hasZero : keys[indexOf(key)] == key;
+	}
+
+	/**
+	 * @param key 不为 0
+	 * @return key 所在的位置，不存在则为可以放入的空位
+	 */
+	private int indexOf(long key) {
+		int index = hash(key) & mask;
+		while (keys[index] != 0 && keys[index] != key) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		keys = new long[capacity];
+		mask = capacity - 1;
+		for (long key : oldKeys) {
+			if (key != 0) {
+				keys[indexOf(key)] = key;
+			}
+		}
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+}
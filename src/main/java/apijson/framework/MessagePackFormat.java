@@ -0,0 +1,319 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package apijson.framework;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import apijson.NotNull;
+
+
+/**MessagePack 格式，见 https://github.com/msgpack/msgpack/blob/master/spec.md
+ * <br > 不支持扩展类型(ext)
+ */
+public class MessagePackFormat extends BinaryFormat {
+
+	@Override
+	public String getName() {
+		return "msgpack";
+	}
+	@Override
+	public String getContentType() {
+		return "application/msgpack";
+	}
+
+
+	@Override
+	protected void writeValue(@NotNull DataOutputStream out, Object value, @NotNull KeyCache keyCache) throws IOException {
+		value = toBasicValue(value);
+
+		if (value == null) {
+			out.write(0xc0);
+		}
+		else if (value instanceof String) {
+			writeString(out, ((String) value).getBytes(StandardCharsets.UTF_8));
+		}
+		else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+			writeLong(out, ((Number) value).longValue());
+		}
+		else if (value instanceof Boolean) {
+			out.write((Boolean) value ? 0xc3 : 0xc2);
+		}
+		else if (value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			writeHeader(out, map.size(), 0x80, 16, 0xde);
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				writeString(out, keyCache.getBytes(String.valueOf(entry.getKey())));
+				writeValue(out, entry.getValue(), keyCache);
+			}
+		}
+		else if (value instanceof Collection) {
+			Collection<?> collection = (Collection<?>) value;
+			writeHeader(out, collection.size(), 0x90, 16, 0xdc);
+			for (Object item : collection) {
+				writeValue(out, item, keyCache);
+			}
+		}
+		else if (value instanceof Object[]) {
+			Object[] array = (Object[]) value;
+			writeHeader(out, array.length, 0x90, 16, 0xdc);
+			for (Object item : array) {
+				writeValue(out, item, keyCache);
+			}
+		}
+		else if (value instanceof BigInteger) {
+			BigInteger bi = (BigInteger) value;
+			if (bi.bitLength() <= 63) {
+				writeLong(out, bi.longValue());
+			}
+			else if (bi.signum() > 0 && bi.bitLength() <= 64) {
+				out.write(0xcf);
+				out.writeLong(bi.longValue());
+			}
+			else {  // 超出 uint 64 的范围，转为 double 会丢失精度
+				writeString(out, bi.toString().getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		else if (value instanceof BigDecimal && isExactDouble((BigDecimal) value) == false) {  // MessagePack 没有十进制小数类型
+			writeString(out, value.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		else if (value instanceof Float) {
+			out.write(0xca);
+			out.writeFloat((Float) value);
+		}
+		else if (value instanceof Number) {  // Double, 能精确表示的 BigDecimal 等
+			out.write(0xcb);
+			out.writeDouble(((Number) value).doubleValue());
+		}
+		else if (value instanceof byte[]) {
+			byte[] bytes = (byte[]) value;
+			if (bytes.length < 0x100) {
+				out.write(0xc4);
+				out.write(bytes.length);
+			}
+			else if (bytes.length < 0x10000) {
+				out.write(0xc5);
+				out.writeShort(bytes.length);
+			}
+			else {
+				out.write(0xc6);
+				out.writeInt(bytes.length);
+			}
+			out.write(bytes);
+		}
+		else {
+			writeString(out, value.toString().getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/**用最短的方式写入整数
+	 * @param out
+	 * @param v
+	 * @throws IOException
+	 */
+	private static void writeLong(@NotNull DataOutputStream out, long v) throws IOException {
+		if (v >= 0) {
+			if (v < 0x80) {
+				out.write((int) v);
+			}
+			else if (v < 0x100) {
+				out.write(0xcc);
+				out.write((int) v);
+			}
+			else if (v < 0x10000) {
+				out.write(0xcd);
+				out.writeShort((int) v);
+			}
+			else if (v < 0x100000000L) {
+				out.write(0xce);
+				out.writeInt((int) v);
+			}
+			else {
+				out.write(0xcf);
+				out.writeLong(v);
+			}
+		}
+		else {
+			if (v >= -32) {
+				out.write((int) v);
+			}
+			else if (v >= Byte.MIN_VALUE) {
+				out.write(0xd0);
+				out.write((int) v);
+			}
+			else if (v >= Short.MIN_VALUE) {
+				out.write(0xd1);
+				out.writeShort((int) v);
+			}
+			else if (v >= Integer.MIN_VALUE) {
+				out.write(0xd2);
+				out.writeInt((int) v);
+			}
+			else {
+				out.write(0xd3);
+				out.writeLong(v);
+			}
+		}
+	}
+
+	private static void writeString(@NotNull DataOutputStream out, @NotNull byte[] bytes) throws IOException {
+		int length = bytes.length;
+		if (length < 32) {
+			out.write(0xa0 | length);
+		}
+		else if (length < 0x100) {
+			out.write(0xd9);
+			out.write(length);
+		}
+		else if (length < 0x10000) {
+			out.write(0xda);
+			out.writeShort(length);
+		}
+		else {
+			out.write(0xdb);
+			out.writeInt(length);
+		}
+		out.write(bytes);
+	}
+
+	/**写入数组或对象的长度
+	 * @param out
+	 * @param size
+	 * @param fixPrefix fixarray 或 fixmap 的前缀
+	 * @param fixLimit fixarray 或 fixmap 能表示的长度上限(不含)
+	 * @param prefix16 array16 或 map16 的前缀，+1 为 array32 或 map32 的前缀
+	 * @throws IOException
+	 */
+	private static void writeHeader(@NotNull DataOutputStream out, int size, int fixPrefix, int fixLimit, int prefix16) throws IOException {
+		if (size < fixLimit) {
+			out.write(fixPrefix | size);
+		}
+		else if (size < 0x10000) {
+			out.write(prefix16);
+			out.writeShort(size);
+		}
+		else {
+			out.write(prefix16 + 1);
+			out.writeInt(size);
+		}
+	}
+
+
+	@Override
+	protected Object readValue(@NotNull DataInputStream in, int depth) throws IOException {
+		int b = readUnsignedByte(in);
+
+		if (b <= 0x7f) {
+			return b;
+		}
+		if (b >= 0xe0) {
+			return (int) (byte) b;
+		}
+		if (b >= 0xa0 && b <= 0xbf) {
+			return readString(in, b & 0x1f);
+		}
+		if (b >= 0x90 && b <= 0x9f) {
+			return readArray(in, b & 0x0f, depth);
+		}
+		if (b >= 0x80 && b <= 0x8f) {
+			return readMap(in, b & 0x0f, depth);
+		}
+
+		switch (b) {
+		case 0xc0:
+			return null;
+		case 0xc2:
+			return false;
+		case 0xc3:
+			return true;
+		case 0xc4:
+			return readBytes(in, in.readUnsignedByte());
+		case 0xc5:
+			return readBytes(in, in.readUnsignedShort());
+		case 0xc6:
+			return readBytes(in, in.readInt() & 0xffffffffL);
+		case 0xca:
+			return toDecimal(in.readFloat());
+		case 0xcb:
+			return toDecimal(in.readDouble());
+		case 0xcc:
+			return in.readUnsignedByte();
+		case 0xcd:
+			return in.readUnsignedShort();
+		case 0xce:
+			return toNumber(in.readInt() & 0xffffffffL);
+		case 0xcf:
+			long u = in.readLong();
+			return u >= 0 ? toNumber(u) : new BigInteger(Long.toUnsignedString(u));
+		case 0xd0:
+			return (int) in.readByte();
+		case 0xd1:
+			return (int) in.readShort();
+		case 0xd2:
+			return in.readInt();
+		case 0xd3:
+			return toNumber(in.readLong());
+		case 0xd9:
+			return readString(in, in.readUnsignedByte());
+		case 0xda:
+			return readString(in, in.readUnsignedShort());
+		case 0xdb:
+			return readString(in, in.readInt() & 0xffffffffL);
+		case 0xdc:
+			return readArray(in, in.readUnsignedShort(), depth);
+		case 0xdd:
+			return readArray(in, in.readInt() & 0xffffffffL, depth);
+		case 0xde:
+			return readMap(in, in.readUnsignedShort(), depth);
+		case 0xdf:
+			return readMap(in, in.readInt() & 0xffffffffL, depth);
+		default:
+			throw new IOException("不支持的 MessagePack 类型 0x" + Integer.toHexString(b) + " ！");
+		}
+	}
+
+	private JSONArray readArray(@NotNull DataInputStream in, long size, int depth) throws IOException {
+		checkLength(size);
+		checkDepth(depth + 1);
+
+		JSONArray array = new JSONArray((int) Math.min(size, 1024));
+		for (long i = 0; i < size; i++) {
+			array.add(readValue(in, depth + 1));
+		}
+		return array;
+	}
+
+	private JSONObject readMap(@NotNull DataInputStream in, long size, int depth) throws IOException {
+		checkLength(size);
+		checkDepth(depth + 1);
+
+		JSONObject object = new JSONObject(true);
+		for (long i = 0; i < size; i++) {
+			Object key = readValue(in, depth + 1);
+			object.put(key == null ? null : key.toString(), readValue(in, depth + 1));
+		}
+		return object;
+	}
+
+}
@@ -0,0 +1,58 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package apijson.framework;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import apijson.NotNull;
+import apijson.orm.SQLConfig;
+
+
+/**从库负载均衡策略，从多个从库中选一个来执行读操作
+ */
+public interface ReplicaBalancer {
+
+	/**轮询
+	 */
+	ReplicaBalancer ROUND_ROBIN = new ReplicaBalancer() {
+		private final AtomicInteger index = new AtomicInteger();
+
+		@Override
+		public String select(SQLConfig config, List<String> uriList) {
+			return uriList.get((index.getAndIncrement() & Integer.MAX_VALUE) % uriList.size());
+		}
+	};
+
+	/**随机
+	 */
+	ReplicaBalancer RANDOM = new ReplicaBalancer() {
+
+		@Override
+		public String select(SQLConfig config, List<String> uriList) {
+			return uriList.get(ThreadLocalRandom.current().nextInt(uriList.size()));
+		}
+	};
+
+
+	/**选择一个从库
+	 * @param config
+	 * @param uriList 可用的从库 uri，不为空
+	 * @return
+	 */
+	String select(SQLConfig config, @NotNull List<String> uriList);
+
+}
@@ -0,0 +1,236 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package apijson.framework;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import apijson.NotNull;
+import apijson.orm.SQLExecutor;
+
+
+/**跨请求共享的查询结果缓存，按条数 maxSize 和有效期 maxAge 淘汰
+ * <br > 用 APIJSONSQLExecutor.getTableVersion 中表的版本号，和 ETag 是同一个，写操作只需要把版本号 +1，缓存的结果在读取时发现表的版本号变了就失效，
+ * <br > 所以查询前要先用 getVersion 取版本号，查询后再用这个版本号 put，避免查询期间的写操作被覆盖
+ */
+public class ResultCache {
+	public static final String TAG = "ResultCache";
+
+	private final int maxSize;
+	private final long maxAge;
+
+	/**
+	 * <key, Entry>，按访问顺序排列，最久未访问的在最前面
+	 */
+	private final Map<String, Entry> entryMap;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong putCount = new AtomicLong();
+	private final AtomicLong invalidateCount = new AtomicLong();
+
+	/**
+	 * @param maxSize 最多缓存的结果数
+	 * @param maxAge 缓存的有效期，单位 ms
+	 */
+	public ResultCache(int maxSize, long maxAge) {
+		this.maxSize = maxSize;
+		this.maxAge = maxAge;
+		this.entryMap = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > ResultCache.this.maxSize;
+			}
+		};
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+	public long getMaxAge() {
+		return maxAge;
+	}
+
+	/**获取表的当前版本号，查询前调用
+	 * @param table
+	 * @return
+	 * @see APIJSONSQLExecutor#getTableVersion
+	 */
+	public long getVersion(@NotNull String table) {
+		return APIJSONSQLExecutor.getTableVersion(table);
+	}
+
+	/**让表的所有缓存失效，写操作后调用，会把表的版本号 +1
+	 * @param table
+	 * @see APIJSONSQLExecutor#incrementTableVersion
+	 */
+	public void invalidate(@NotNull String table) {
+		APIJSONSQLExecutor.incrementTableVersion(table);
+		invalidateCount.incrementAndGet();
+	}
+
+	/**清空所有缓存
+	 */
+	public synchronized void clear() {
+		entryMap.clear();
+	}
+
+	/**获取缓存的结果，返回的是深拷贝，可以直接修改
+	 * @param key
+	 * @return 没有缓存、已过期或者表已被修改则返回 null
+	 */
+	public List<JSONObject> get(@NotNull String key) {
+		Entry entry;
+		synchronized (this) {
+			entry = entryMap.get(key);
+			if (entry != null && (System.currentTimeMillis() > entry.expireTime || getVersion(entry.table) != entry.version)) {
+				entryMap.remove(key);
+				entry = null;
+			}
+		}
+
+		if (entry == null) {
+			missCount.incrementAndGet();
+			return null;
+		}
+
+		hitCount.incrementAndGet();
+		return copy(entry.list);
+	}
+
+	/**保存查询结果，会保存一份深拷贝
+	 * @param key
+	 * @param table
+	 * @param version 查询前通过 getVersion 获取的版本号
+	 * @param list
+	 */
+	public void put(@NotNull String key, @NotNull String table, long version, List<JSONObject> list) {
+		if (list == null || maxSize <= 0 || getVersion(table) != version) {  // 查询期间表被修改了，结果可能是旧的
+			return;
+		}
+
+		Entry entry = new Entry(table, version, System.currentTimeMillis() + maxAge, copy(list));
+		synchronized (this) {
+			entryMap.put(key, entry);
+		}
+		putCount.incrementAndGet();
+	}
+
+	/**缓存统计
+	 * @return { maxSize, size, hit, miss, hitRate, put, invalidate }
+	 */
+	public JSONObject getStats() {
+		long hit = hitCount.get();
+		long miss = missCount.get();
+
+		JSONObject stats = new JSONObject(true);
+		stats.put("maxSize", maxSize);
+		synchronized (this) {
+			stats.put("size", entryMap.size());
+		}
+		stats.put("hit", hit);
+		stats.put("miss", miss);
+		stats.put("hitRate", hit + miss <= 0 ? 0 : 1.0*hit/(hit + miss));
+		stats.put("put", putCount.get());
+		stats.put("invalidate", invalidateCount.get());
+		return stats;
+	}
+
+
+	/**深拷贝，保存和取出时都要拷贝，避免不同请求共用同一个可修改的值
+	 * @param list
+	 * @return
+	 */
+	private static List<JSONObject> copy(List<JSONObject> list) {
+		List<JSONObject> newList = new ArrayList<>(list.size());
+		for (JSONObject item : list) {
+			newList.add(item == null ? null : copyObject(item, true));
+		}
+		return newList;
+	}
+
+	/**
+	 * @param object
+	 * @param isRow 是否为一行查询结果，是则去掉 SQLExecutor.KEY_RAW_LIST，它引用了包括自己在内的所有行
+	 * @return CompactRow 仍然是 CompactRow
+	 */
+	private static JSONObject copyObject(@NotNull JSONObject object, boolean isRow) {
+		Map<String, Object> map = object.getInnerMap();
+		Map<String, Object> newMap = map instanceof CompactRow ? new CompactRow(((CompactRow) map).getDecoder()) : new LinkedHashMap<String, Object>(Math.max(16, 2*map.size()));
+		for (Map.Entry<String, Object> entry : map.entrySet()) {
+			if (isRow && SQLExecutor.KEY_RAW_LIST.equals(entry.getKey())) {
+				continue;
+			}
+			newMap.put(entry.getKey(), copyValue(entry.getValue()));
+		}
+		return new JSONObject(newMap);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object copyValue(Object value) {
+		if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean) {
+			return value;
+		}
+		if (value instanceof JSONObject) {
+			return copyObject((JSONObject) value, false);
+		}
+		if (value instanceof LazyJSON) {  // 解析后的值可能会被修改，重新包装原始的字符串，用到时再解析
+			return new LazyJSON(((LazyJSON) value).toJSONString());
+		}
+		if (value instanceof Map) {
+			Map<String, Object> newMap = new LinkedHashMap<>();
+			for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+				newMap.put(entry.getKey(), copyValue(entry.getValue()));
+			}
+			return newMap;
+		}
+		if (value instanceof Collection) {
+			Collection<?> collection = (Collection<?>) value;
+			List<Object> newList = value instanceof JSONArray ? new JSONArray(collection.size()) : new ArrayList<>(collection.size());
+			for (Object item : collection) {
+				newList.add(copyValue(item));
+			}
+			return newList;
+		}
+		if (value instanceof byte[]) {
+			return ((byte[]) value).clone();
+		}
+		return value;
+	}
+
+	private static class Entry {
+		final String table;
+		final long version;
+		final long expireTime;
+		final List<JSONObject> list;
+
+		Entry(String table, long version, long expireTime, List<JSONObject> list) {
+			this.table = table;
+			this.version = version;
+			this.expireTime = expireTime;
+			this.list = list;
+		}
+	}
+
+}
@@ -0,0 +1,186 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package apijson.framework;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**从 ResultSetMetaData 中提前取出的每一列的信息，同一条 SQL 的列不会变，所以可以缓存
+ * <br > 下标和 JDBC 一样从 1 开始
+ */
+public class RowDecoder {
+
+	/**
+	 * 数字、布尔等，rs.getObject 的结果直接用
+	 */
+	public static final int KIND_VALUE = 0;
+	/**
+	 * DATE, TIME, TIMESTAMP，rs.getObject 的结果转为字符串
+	 */
+	public static final int KIND_TEMPORAL = 1;
+	/**
+	 * JSON、字符串、二进制及其它类型，用 getValue 转换
+	 */
+	public static final int KIND_OBJECT = 2;
+
+	private final String[] labels;
+	private final String[] columnLabels;
+	private final int[] types;
+	private final boolean[] hides;
+	private final boolean[] jsons;
+	private final int[] kinds;
+
+	/**
+	 * 不隐藏的列名，去重后按列的顺序排列，所有 CompactRow 共用
+	 */
+	private final String[] columns;
+	/**
+	 * <列名, 在 columns 中的位置>
+	 */
+	private final Map<String, Integer> slotMap;
+
+	/**
+	 * @param labels 列名(key)
+	 * @param types java.sql.Types 中的类型
+	 * @param hides 是否隐藏，见 isHideColumn
+	 * @param jsons 是否为 JSON 类型，见 isJSONType，是则总是 KIND_OBJECT
+	 */
+	public RowDecoder(String[] labels, int[] types, boolean[] hides, boolean[] jsons) {
+		this(labels, null, types, hides, jsons);
+	}
+	/**
+	 * @param labels 列名(key)
+	 * @param columnLabels rsmd.getColumnLabel 的结果，用于 matches 判断缓存的 RowDecoder 是否过期，为 null 则不比较
+	 * @param types java.sql.Types 中的类型，包括隐藏的列
+	 * @param hides 是否隐藏，见 isHideColumn
+	 * @param jsons 是否为 JSON 类型，见 isJSONType，是则总是 KIND_OBJECT
+	 */
+	public RowDecoder(String[] labels, String[] columnLabels, int[] types, boolean[] hides, boolean[] jsons) {
+		this.labels = labels;
+		this.columnLabels = columnLabels;
+		this.types = types;
+		this.hides = hides;
+		this.jsons = jsons;
+
+		kinds = new int[labels.length];
+		for (int i = 1; i < labels.length; i++) {
+			kinds[i] = jsons[i] ? KIND_OBJECT : getKindOfType(types[i]);
+		}
+
+		List<String> columnList = new ArrayList<>(labels.length);
+		slotMap = new HashMap<>(2*labels.length);
+		for (int i = 1; i < labels.length; i++) {
+			String label = labels[i];
+			if (hides[i] == false && label != null && slotMap.containsKey(label) == false) {
+				slotMap.put(label, columnList.size());
+				columnList.add(label);
+			}
+		}
+		columns = columnList.toArray(new String[columnList.size()]);
+	}
+
+	public int getColumnCount() {
+		return labels.length - 1;
+	}
+	public String getLabel(int columnIndex) {
+		return labels[columnIndex];
+	}
+	public int getType(int columnIndex) {
+		return types[columnIndex];
+	}
+	public boolean isHide(int columnIndex) {
+		return hides[columnIndex];
+	}
+	public boolean isJSON(int columnIndex) {
+		return jsons[columnIndex];
+	}
+	/**
+	 * @param columnIndex
+	 * @return KIND_VALUE, KIND_TEMPORAL, KIND_OBJECT
+	 */
+	public int getKind(int columnIndex) {
+		return kinds[columnIndex];
+	}
+
+	/**同一条 SQL 在表结构变更(例如 SELECT * 时加减列、改列名或类型)后列会变，此时缓存的 RowDecoder 不能再用
+	 * @param rsmd
+	 * @return 列数、每一列的 rsmd.getColumnLabel 及 rsmd.getColumnType 是否都和生成时一样
+	 * @throws SQLException
+	 */
+	public boolean matches(ResultSetMetaData rsmd) throws SQLException {
+		int length = rsmd.getColumnCount();
+		if (length != getColumnCount()) {
+			return false;
+		}
+		for (int i = 1; i <= length; i++) {
+			if (types[i] != rsmd.getColumnType(i)) {
+				return false;
+			}
+			if (columnLabels != null && columnLabels[i] != null && columnLabels[i].equals(rsmd.getColumnLabel(i)) == false) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**根据 java.sql.Types 中的类型决定怎么取值
+	 * @param type
+	 * @return
+	 */
+	public static int getKindOfType(int type) {
+		switch (type) {
+		case Types.BIT:
+		case Types.BOOLEAN:
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+		case Types.BIGINT:
+		case Types.REAL:
+		case Types.FLOAT:
+		case Types.DOUBLE:
+		case Types.NUMERIC:
+		case Types.DECIMAL:
+			return KIND_VALUE;
+		case Types.DATE:
+		case Types.TIME:
+		case Types.TIMESTAMP:
+			return KIND_TEMPORAL;
+		default:
+			return KIND_OBJECT;
+		}
+	}
+
+	/**
+	 * @return 不隐藏的列名，不能修改
+	 */
+	public String[] getColumns() {
+		return columns;
+	}
+	/**
+	 * @param column
+	 * @return 在 getColumns 中的位置，不存在则返回 -1
+	 */
+	public int getSlot(Object column) {
+		Integer slot = slotMap.get(column);
+		return slot == null ? -1 : slot;
+	}
+
+}
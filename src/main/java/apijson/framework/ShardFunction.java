@@ -0,0 +1,58 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package apijson.framework;
+
+import apijson.NotNull;
+import apijson.orm.SQLConfig;
+
+
+/**分片函数，根据分片键(默认为 userIdKey 对应的值)计算数据所在的分片
+ */
+public interface ShardFunction {
+
+	/**取模，数字和整数字符串直接取模，其它的用 hashCode 取模
+	 * <br > "82001" 和 82001 在同一个分片，例如 GET 传的字符串和 POST 传的数字
+	 */
+	ShardFunction MOD = new ShardFunction() {
+
+		@Override
+		public int getShard(SQLConfig config, Object key, int shardCount) {
+			long value;
+			if (key instanceof Number) {
+				value = ((Number) key).longValue();
+			}
+			else {
+				String s = key.toString();
+				try {
+					value = Long.parseLong(s.trim());
+				}
+				catch (NumberFormatException e) {
+					value = s.hashCode();
+				}
+			}
+			return (int) Math.floorMod(value, (long) shardCount);
+		}
+	};
+
+
+	/**计算分片
+	 * @param config
+	 * @param key 分片键的值，不为 null
+	 * @param shardCount 分片数量
+	 * @return 0 到 shardCount - 1
+	 */
+	int getShard(SQLConfig config, @NotNull Object key, int shardCount);
+
+}
@@ -0,0 +1,124 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package apijson.framework;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import apijson.Log;
+import apijson.NotNull;
+
+
+/**单个连接的 PreparedStatement 缓存，key 为预编译 SQL，超过 maxSize 时关闭并移除最久未使用的
+ * <br > 只在一个线程内使用，同一个连接同一时间只会被一个 APIJSONSQLExecutor 借出
+ */
+public class StatementCache {
+	public static final String TAG = "StatementCache";
+
+	private final int maxSize;
+	private final AtomicLong hitCount;
+	private final AtomicLong missCount;
+	private final Map<String, PreparedStatement> statementMap;
+
+	public StatementCache(int maxSize) {
+		this(maxSize, new AtomicLong(), new AtomicLong());
+	}
+	/**
+	 * @param maxSize
+	 * @param hitCount 命中计数，可以多个缓存共用来汇总
+	 * @param missCount 未命中计数，可以多个缓存共用来汇总
+	 */
+	public StatementCache(int maxSize, @NotNull AtomicLong hitCount, @NotNull AtomicLong missCount) {
+		this.maxSize = maxSize;
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.statementMap = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() <= StatementCache.this.maxSize) {
+					return false;
+				}
+				close(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+	public long getHitCount() {
+		return hitCount.get();
+	}
+	public long getMissCount() {
+		return missCount.get();
+	}
+	public synchronized int size() {
+		return statementMap.size();
+	}
+
+	/**获取缓存的 PreparedStatement 并清空已设置的参数，没有则新建并缓存
+	 * @param connection
+	 * @param sql
+	 * @param returnGeneratedKeys
+	 * @return
+	 * @throws SQLException
+	 */
+	@NotNull
+	public synchronized PreparedStatement prepareStatement(@NotNull Connection connection, @NotNull String sql, boolean returnGeneratedKeys) throws SQLException {
+		String key = returnGeneratedKeys ? "K:" + sql : sql;
+
+		PreparedStatement statement = statementMap.get(key);
+		if (statement != null) {
+			if (statement.isClosed() == false) {
+				hitCount.incrementAndGet();
+				statement.clearParameters();
+				return statement;
+			}
+			statementMap.remove(key);
+		}
+
+		missCount.incrementAndGet();
+		statement = returnGeneratedKeys ? connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) : connection.prepareStatement(sql);
+		statementMap.put(key, statement);
+		return statement;
+	}
+
+	/**关闭并清空所有缓存的 PreparedStatement
+	 */
+	public synchronized void clear() {
+		for (PreparedStatement statement : statementMap.values()) {
+			close(statement);
+		}
+		statementMap.clear();
+	}
+
+	private static void close(Statement statement) {
+		try {
+			statement.close();
+		}
+		catch (SQLException e) {
+			Log.e(TAG, "close  catch (SQLException e) { \n" + e.getMessage());
+		}
+	}
+
+}
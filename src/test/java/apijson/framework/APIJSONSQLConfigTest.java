@@ -0,0 +1,155 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package apijson.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import apijson.RequestMethod;
+
+
+/**SQL 模板生成的 SQL 及 getPreparedValueList 必须和不用模板时 AbstractSQLConfig.getSQL 的结果完全一致
+ */
+public class APIJSONSQLConfigTest {
+
+	private int maxSQLTemplateCount;
+
+	@Before
+	public void setUp() {
+		maxSQLTemplateCount = APIJSONSQLConfig.MAX_SQL_TEMPLATE_COUNT;
+		APIJSONSQLConfig.MAX_SQL_TEMPLATE_COUNT = 1000;
+		APIJSONSQLConfig.SQL_TEMPLATE_MAP.clear();
+	}
+
+	@After
+	public void tearDown() {
+		APIJSONSQLConfig.MAX_SQL_TEMPLATE_COUNT = maxSQLTemplateCount;
+		APIJSONSQLConfig.SQL_TEMPLATE_MAP.clear();
+	}
+
+
+	@Test
+	public void testSameShapeWithDifferentValues() throws Exception {
+		assertTemplateSQL("id", 1, "userId", 82001);
+		assertEquals(1, APIJSONSQLConfig.SQL_TEMPLATE_MAP.size());
+
+		assertTemplateSQL("id", 2, "userId", 82002);
+		assertTemplateSQL("id", 3, "userId", 82003);
+		assertEquals(1, APIJSONSQLConfig.SQL_TEMPLATE_MAP.size());  // 后两次都用了第一次生成的模板
+
+		assertTemplateSQL("id", 4, "userId", "82004");  // 值的类型不影响结构
+		assertEquals(1, APIJSONSQLConfig.SQL_TEMPLATE_MAP.size());
+	}
+
+	@Test
+	public void testInListWithDifferentSizes() throws Exception {
+		assertTemplateSQL("id{}", Arrays.asList(1, 2));
+		assertTemplateSQL("id{}", Arrays.asList(3, 4));
+		assertEquals(1, APIJSONSQLConfig.SQL_TEMPLATE_MAP.size());
+
+		assertTemplateSQL("id{}", Arrays.asList(5, 6, 7));  // ? 的数量不同，不能用上面的模板
+		assertTemplateSQL("id{}", Arrays.asList(8));
+		assertTemplateSQL("id{}", Arrays.asList(9, 10, 11));
+		assertEquals(3, APIJSONSQLConfig.SQL_TEMPLATE_MAP.size());
+
+		assertTemplateSQL("id!{}", Arrays.asList(12, 13), "userId{}", Arrays.asList(82001, 82002, 82003));
+		assertTemplateSQL("id!{}", Arrays.asList(14, 15), "userId{}", Arrays.asList(82004, 82005, 82006));
+		assertEquals(4, APIJSONSQLConfig.SQL_TEMPLATE_MAP.size());
+	}
+
+	@Test
+	public void testOperators() throws Exception {
+		assertTemplateSQL("id!", 1, "id>=", 10, "id<=", 100, "userId>", 82001, "userId<", 82010);
+		assertTemplateSQL("id!", 2, "id>=", 20, "id<=", 200, "userId>", 82002, "userId<", 82020);
+		assertEquals(1, APIJSONSQLConfig.SQL_TEMPLATE_MAP.size());
+
+		assertTemplateSQL("id>=", 10);
+		assertTemplateSQL("id<=", 10);  // 和上面只有运算符不同，不能共用模板
+		assertTemplateSQL("id!", 10);
+		assertTemplateSQL("id", 10);
+		assertEquals(5, APIJSONSQLConfig.SQL_TEMPLATE_MAP.size());
+	}
+
+	@Test
+	public void testKeyOrder() throws Exception {
+		String sql = assertTemplateSQL("id>=", 1, "userId", 82001, "content", "a");
+		String sql2 = assertTemplateSQL("userId", 82002, "content", "b", "id>=", 2);
+		String sql3 = assertTemplateSQL("content", "c", "id>=", 3, "userId", 82003);
+		assertNotEquals(sql, sql2);
+		assertNotEquals(sql, sql3);
+		assertNotEquals(sql2, sql3);
+		assertEquals(3, APIJSONSQLConfig.SQL_TEMPLATE_MAP.size());
+
+		assertTemplateSQL("userId", 82004, "content", "d", "id>=", 4);
+		assertEquals(3, APIJSONSQLConfig.SQL_TEMPLATE_MAP.size());
+	}
+
+
+	/**用 keyValues 分别生成不用模板和用模板的 SQL，预编译和非预编译的 SQL 及 getPreparedValueList 都要一致
+	 * @param keyValues key0, value0, key1, value1 ...
+	 * @return 预编译的 SQL
+	 * @throws Exception
+	 */
+	private static String assertTemplateSQL(Object... keyValues) throws Exception {
+		APIJSONSQLConfig expected = newConfig(keyValues);
+		String expectedSQL = getSQL(expected, true, false);
+		List<Object> expectedValueList = new ArrayList<>(expected.getPreparedValueList());
+		String expectedRawSQL = getSQL(newConfig(keyValues), false, false);
+
+		APIJSONSQLConfig config = newConfig(keyValues);
+		String sql = getSQL(config, true, true);
+		assertEquals(expectedSQL, sql);
+		assertEquals(expectedValueList, config.getPreparedValueList());
+
+		assertEquals(expectedSQL, getSQL(newConfig(keyValues), true, true));  // 第二次一定是用的模板
+		assertEquals(expectedRawSQL, getSQL(newConfig(keyValues), false, true));
+		return sql;
+	}
+
+	/**
+	 * @param config
+	 * @param prepared
+	 * @param template 为 false 则和 AbstractSQLConfig.getSQL 一样，不用模板
+	 * @return
+	 * @throws Exception
+	 */
+	private static String getSQL(APIJSONSQLConfig config, boolean prepared, boolean template) throws Exception {
+		int count = APIJSONSQLConfig.MAX_SQL_TEMPLATE_COUNT;
+		APIJSONSQLConfig.MAX_SQL_TEMPLATE_COUNT = template ? count : 0;
+		try {
+			return config.getSQL(prepared);
+		}
+		finally {
+			APIJSONSQLConfig.MAX_SQL_TEMPLATE_COUNT = count;
+		}
+	}
+
+	private static APIJSONSQLConfig newConfig(Object... keyValues) {
+		APIJSONSQLConfig config = new APIJSONSQLConfig(RequestMethod.GET, "Moment");
+		for (int i = 0; i < keyValues.length; i += 2) {
+			config.putWhere((String) keyValues[i], keyValues[i + 1], false);
+		}
+		return config;
+	}
+
+}
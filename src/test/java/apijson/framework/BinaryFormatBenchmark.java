@@ -0,0 +1,133 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package apijson.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+
+/**对比 JSON, MessagePack, CBOR 序列化和解析一个数组响应的耗时，运行 main 方法或者 mvn test-compile 后用 JMH 运行
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryFormatBenchmark {
+
+	@Param({ "100", "2000" })
+	public int rowCount;
+
+	private JSONObject response;
+	private byte[] json;
+	private byte[] msgpack;
+	private byte[] cbor;
+
+	@Setup
+	public void setup() throws IOException {
+		JSONArray list = new JSONArray(rowCount);
+		for (int i = 0; i < rowCount; i++) {
+			JSONObject moment = new JSONObject(true);
+			moment.put("id", 1500000000000L + i);
+			moment.put("userId", 82001 + i%50);
+			moment.put("content", "APIJSON 是一种专为 API 而生的 JSON 网络传输协议 #" + i);
+			moment.put("praiseUserIdList", Arrays.asList(82001, 82002, 82003));
+			moment.put("price", new BigDecimal(i + ".25"));
+			moment.put("date", "2017-02-01 11:21:50." + i%10);
+
+			JSONObject user = new JSONObject(true);
+			user.put("id", 82001 + i%50);
+			user.put("name", "Test User " + i%50);
+			user.put("head", "https://example.com/head/" + i%50 + ".jpg");
+
+			JSONObject item = new JSONObject(true);
+			item.put("Moment", moment);
+			item.put("User", user);
+			list.add(item);
+		}
+
+		response = new JSONObject(true);
+		response.put("[]", list);
+		response.put("code", 200);
+		response.put("msg", "success");
+
+		json = JSON.toJSONBytes(response);
+		msgpack = write(BinaryFormat.MSGPACK);
+		cbor = write(BinaryFormat.CBOR);
+	}
+
+	private byte[] write(BinaryFormat format) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		format.write(out, response);
+		return out.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] writeJSON() {
+		return JSON.toJSONString(response).getBytes(StandardCharsets.UTF_8);
+	}
+	@Benchmark
+	public byte[] writeMessagePack() throws IOException {
+		return write(BinaryFormat.MSGPACK);
+	}
+	@Benchmark
+	public byte[] writeCBOR() throws IOException {
+		return write(BinaryFormat.CBOR);
+	}
+
+	@Benchmark
+	public Object readJSON() {
+		return JSON.parseObject(new String(json, StandardCharsets.UTF_8));
+	}
+	@Benchmark
+	public Object readMessagePack() throws IOException {
+		return BinaryFormat.MSGPACK.read(new ByteArrayInputStream(msgpack));
+	}
+	@Benchmark
+	public Object readCBOR() throws IOException {
+		return BinaryFormat.CBOR.read(new ByteArrayInputStream(cbor));
+	}
+
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(BinaryFormatBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
@@ -0,0 +1,120 @@
+/*Copyright ©2016 TommyLemon(https://github.com/TommyLemon/APIJSON)
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.*/
+
+package apijson.framework;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+
+
+/**对比每行一个 LinkedHashMap、先放 LinkedHashMap 再转 CompactRow、直接放到 CompactRow 三种方式
+ * 取出一批查询结果并序列化的耗时，运行 main 方法或者 mvn test-compile 后用 JMH 运行
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompactRowBenchmark {
+
+	@Param({ "8", "32" })
+	public int columnCount;
+
+	@Param({ "1000" })
+	public int rowCount;
+
+	private RowDecoder decoder;
+	private Object[][] rows;
+
+	@Setup
+	public void setup() {
+		String[] labels = new String[columnCount + 1];
+		int[] types = new int[columnCount + 1];
+		boolean[] hides = new boolean[columnCount + 1];
+		boolean[] jsons = new boolean[columnCount + 1];
+		for (int i = 1; i <= columnCount; i++) {
+			labels[i] = "column" + i;
+			types[i] = i%2 == 0 ? Types.BIGINT : Types.VARCHAR;
+		}
+		decoder = new RowDecoder(labels, types, hides, jsons);
+
+		rows = new Object[rowCount][columnCount + 1];
+		for (int r = 0; r < rowCount; r++) {
+			for (int i = 1; i <= columnCount; i++) {
+				rows[r][i] = i%2 == 0 ? (Object) Long.valueOf(r*i) : "value" + r + "_" + i;
+			}
+		}
+	}
+
+	@Benchmark
+	public String linkedHashMap() {
+		List<JSONObject> list = new ArrayList<>(rowCount);
+		for (Object[] row : rows) {
+			list.add(put(new JSONObject(true), row));
+		}
+		return JSON.toJSONString(list);
+	}
+
+	@Benchmark
+	public String copyToCompactRow() {
+		List<JSONObject> list = new ArrayList<>(rowCount);
+		for (Object[] row : rows) {
+			list.add(new JSONObject(CompactRow.valueOf(decoder, put(new JSONObject(true), row))));
+		}
+		return JSON.toJSONString(list);
+	}
+
+	@Benchmark
+	public String compactRow() {
+		List<JSONObject> list = new ArrayList<>(rowCount);
+		for (Object[] row : rows) {
+			list.add(put(new JSONObject(new CompactRow(decoder)), row));
+		}
+		return JSON.toJSONString(list);
+	}
+
+	private JSONObject put(JSONObject table, Object[] row) {
+		for (int i = 1; i <= columnCount; i++) {
+			table.put(decoder.getLabel(i), row[i]);
+		}
+		return table;
+	}
+
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(CompactRowBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}